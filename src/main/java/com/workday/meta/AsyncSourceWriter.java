@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Writes generated source files on background threads so that the compiler thread can move on to analyzing the next
+ * type while the previous ones are rendered and written out.
+ * <p>
+ * Neither the {@link Filer} nor the {@link Messager} are thread safe, so all calls to them, including opening and
+ * closing the files, are made on the thread calling this class, which must be the compiler thread. Only rendering the
+ * contents of the files and writing them to the open {@link Writer}s happen in the background. Consequently, {@link
+ * Renderer}s must not access the {@code javax.lang.model} API; everything they need must be extracted beforehand.
+ * <p>
+ * At most {@code maxPendingFiles} files are open at any time. When that limit is reached, {@link #write(String,
+ * Renderer, Element...)} blocks until the oldest file is finished. {@link #finishRound()} must be called before the
+ * processor returns from each round, since the compiler only sees files once they are closed.
+ * <p>
+ * {@link #shutdown()} should be called once the processor is done, but the background threads also stop on their own
+ * after being idle for a while, so a writer that is never shut down does not keep its threads, and through them the
+ * processor's class loader, alive in a long running compiler such as a build daemon.
+ */
+public class AsyncSourceWriter {
+
+    private static final long KEEP_ALIVE_MILLIS = 1000;
+
+    private final Filer filer;
+    private final Messager messager;
+    private final ThreadPoolExecutor executor;
+    private final int maxPendingFiles;
+    private final Queue<PendingFile> pendingFiles = new ArrayDeque<>();
+
+    /**
+     * @param processingEnv The environment of the processor generating the files.
+     * @param threads The number of background threads to render files on.
+     * @param maxPendingFiles The maximum number of files that may be open at once.
+     */
+    public AsyncSourceWriter(ProcessingEnvironment processingEnv, int threads, int maxPendingFiles) {
+        this(processingEnv, threads, maxPendingFiles, KEEP_ALIVE_MILLIS);
+    }
+
+    /**
+     * @param keepAliveMillis How long a background thread may be idle before it stops.
+     */
+    AsyncSourceWriter(ProcessingEnvironment processingEnv, int threads, int maxPendingFiles, long keepAliveMillis) {
+        if (threads < 1 || maxPendingFiles < 1) {
+            throw new IllegalArgumentException("threads and maxPendingFiles must both be positive.");
+        }
+        filer = processingEnv.getFiler();
+        messager = processingEnv.getMessager();
+        executor = new ThreadPoolExecutor(threads, threads, keepAliveMillis, TimeUnit.MILLISECONDS,
+                                          new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        this.maxPendingFiles = maxPendingFiles;
+    }
+
+    /**
+     * Creates the source file for {@code typeName} and schedules {@code renderer} to write its contents in the
+     * background. Failures are reported through the {@link Messager} as errors, on the originating element if there is
+     * one.
+     *
+     * @return Whether the file was created. If it was not, the renderer will not be called.
+     *
+     * @throws IllegalStateException If this writer has been shut down.
+     */
+    public boolean write(String typeName, final Renderer renderer, Element... originatingElements) {
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("Cannot write " + typeName + " after shutdown.");
+        }
+        finishCompletedFiles();
+        while (pendingFiles.size() >= maxPendingFiles) {
+            finish(pendingFiles.remove());
+        }
+
+        Element element = originatingElements.length > 0 ? originatingElements[0] : null;
+        final Writer writer;
+        try {
+            JavaFileObject sourceFile = filer.createSourceFile(typeName, originatingElements);
+            writer = sourceFile.openWriter();
+        } catch (IOException e) {
+            reportError(typeName, element, e);
+            return false;
+        }
+
+        Future<Void> future;
+        try {
+            future = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    renderer.render(writer);
+                    writer.flush();
+                    return null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            closeQuietly(writer);
+            reportError(typeName, element, e);
+            return false;
+        }
+        pendingFiles.add(new PendingFile(typeName, element, writer, future));
+        return true;
+    }
+
+    /**
+     * Waits for all scheduled files to be written and closes them. Must be called at the end of every round.
+     */
+    public void finishRound() {
+        while (!pendingFiles.isEmpty()) {
+            finish(pendingFiles.remove());
+        }
+    }
+
+    /**
+     * Finishes all scheduled files and stops the background threads. No files may be written afterwards.
+     */
+    public void shutdown() {
+        finishRound();
+        executor.shutdown();
+    }
+
+    /**
+     * @return The number of background threads currently running.
+     */
+    int getThreadCount() {
+        return executor.getPoolSize();
+    }
+
+    /**
+     * Closes the files at the head of the queue that are already done, without blocking.
+     */
+    private void finishCompletedFiles() {
+        while (!pendingFiles.isEmpty() && pendingFiles.peek().future.isDone()) {
+            finish(pendingFiles.remove());
+        }
+    }
+
+    /**
+     * Waits for the file to be rendered and closes it. The writer is only touched once the renderer is done with it, so
+     * an interrupt does not stop the wait; it is restored once the file is closed.
+     */
+    private void finish(PendingFile file) {
+        Throwable error = null;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                file.future.get();
+                break;
+            } catch (ExecutionException e) {
+                error = e.getCause();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            file.writer.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+
+        if (error != null) {
+            reportError(file.typeName, file.element, error);
+        }
+    }
+
+    private static void closeQuietly(Writer writer) {
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // The error that prevented writing the file is reported instead.
+        }
+    }
+
+    private void reportError(String typeName, Element element, Throwable error) {
+        String message = String.format("Could not write %s: %s", typeName, error);
+        if (element == null) {
+            messager.printMessage(Diagnostic.Kind.ERROR, message);
+        } else {
+            messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        }
+    }
+
+    public interface Renderer {
+
+        /**
+         * Writes the contents of the file. Called on a background thread.
+         */
+        void render(Writer writer) throws IOException;
+    }
+
+    private static class PendingFile {
+
+        final String typeName;
+        final Element element;
+        final Writer writer;
+        final Future<Void> future;
+
+        PendingFile(String typeName, Element element, Writer writer, Future<Void> future) {
+            this.typeName = typeName;
+            this.element = element;
+            this.writer = writer;
+            this.future = future;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "metajava-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.annotation.processing.ProcessingEnvironment;
+
+/**
+ * Owns all caches metajava keeps during a compilation and bounds their combined size. Cached values often hold on to
+ * compiler symbols, so in long-lived compiler daemons they must neither outlive the compilation they came from nor grow
+ * without bound.
+ * <p>
+ * All caches of a manager share a single budget, measured in the weight of their entries, which is one per entry
+ * unless a cache is given a {@link Weigher} (e.g. to approximate bytes). When the budget is exceeded, the least
+ * recently used entries across all caches are evicted. A budget of zero disables caching.
+ * <p>
+ * Caches are scoped either to a round, in which case they are cleared by {@link #endRound()}, or to the {@link
+ * ProcessingEnvironment}. There is no global registry of managers: a processor creates its manager in {@code init},
+ * e.g. with {@link #create(ProcessingEnvironment)}, and keeps it in a field, so the manager and everything it caches
+ * become unreachable together with the processor once the compilation is over. Processors should still call {@link
+ * #endRound()} at the end of every round and may call {@link #clear()} once processing is over.
+ * <p>
+ * A manager created with {@link #create(ProcessingEnvironment)} is bound to that environment, and components that cache
+ * values of the {@code javax.lang.model} API, such as {@link MetaTypes}, reject managers bound to any other, so that a
+ * manager reused across compilations cannot hand out types of an earlier one.
+ */
+public final class CacheManager {
+
+    /**
+     * The processor option used to configure the budget of the managers returned by {@link
+     * #create(ProcessingEnvironment)}, e.g. {@code -Ametajava.cacheBudget=5000}.
+     */
+    public static final String BUDGET_OPTION = "metajava.cacheBudget";
+    public static final long DEFAULT_BUDGET = 10000;
+
+    public enum Scope {
+        ROUND,
+        ENVIRONMENT
+    }
+
+    public interface Weigher<K, V> {
+
+        /**
+         * @return The weight of the entry, which must be positive.
+         */
+        int weigh(K key, V value);
+    }
+
+    private final long budget;
+    private final ProcessingEnvironment processingEnv;
+    private final LinkedHashMap<EntryKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Cache<?, ?>> caches = new LinkedHashMap<>();
+    private long totalWeight;
+
+    /**
+     * Creates a manager that is not bound to an environment, which can therefore not be used to cache values of the
+     * {@code javax.lang.model} API.
+     */
+    public CacheManager(long budget) {
+        this(budget, null);
+    }
+
+    private CacheManager(long budget, ProcessingEnvironment processingEnv) {
+        this.budget = budget;
+        this.processingEnv = processingEnv;
+    }
+
+    /**
+     * Creates a manager bound to the given environment, with the budget given by the {@link #BUDGET_OPTION} of the
+     * environment, or the {@link #DEFAULT_BUDGET}.
+     */
+    public static CacheManager create(ProcessingEnvironment processingEnv) {
+        return new CacheManager(getBudget(processingEnv), processingEnv);
+    }
+
+    private static long getBudget(ProcessingEnvironment processingEnv) {
+        String budget = processingEnv.getOptions().get(BUDGET_OPTION);
+        if (budget == null) {
+            return DEFAULT_BUDGET;
+        }
+        try {
+            return Long.parseLong(budget.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    String.format("Option %s must be a number but was '%s'.", BUDGET_OPTION, budget), e);
+        }
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return The environment this manager was created for, or null if it is not bound to one.
+     */
+    public ProcessingEnvironment getEnvironment() {
+        return processingEnv;
+    }
+
+    /**
+     * Checks that this manager was created for the given environment, and may therefore cache its types and elements.
+     *
+     * @throws IllegalArgumentException If this manager is bound to a different environment, or to none.
+     */
+    public void checkEnvironment(ProcessingEnvironment processingEnv) {
+        if (this.processingEnv != processingEnv) {
+            throw new IllegalArgumentException(this.processingEnv == null
+                    ? "This cache manager is not bound to an environment; create it with CacheManager.create."
+                    : "This cache manager was created for a different environment.");
+        }
+    }
+
+    public <K, V> Cache<K, V> getCache(String name, Scope scope) {
+        return getCache(name, scope, null);
+    }
+
+    /**
+     * Returns the cache of the given name, creating it if it does not exist yet. Components that are created
+     * repeatedly, e.g. once per round, thereby share a single cache instead of each adding a new one.
+     *
+     * @param name The name of the cache, which identifies it and is used in the statistics.
+     * @param scope When the entries of the cache are dropped.
+     * @param weigher Determines the weight of each entry, or null to weigh each entry as one. Ignored if the cache
+     * already exists.
+     *
+     * @throws IllegalArgumentException If the cache already exists with a different scope.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <K, V> Cache<K, V> getCache(String name, Scope scope, Weigher<? super K, ? super V> weigher) {
+        Cache<?, ?> existing = caches.get(name);
+        if (existing != null) {
+            if (existing.scope != scope) {
+                throw new IllegalArgumentException(
+                        String.format("Cache %s has scope %s, not %s.", name, existing.scope, scope));
+            }
+            return (Cache<K, V>) existing;
+        }
+        Cache<K, V> cache = new Cache<>(name, scope, weigher);
+        caches.put(name, cache);
+        return cache;
+    }
+
+    /**
+     * Drops the entries of the cache of the given name and removes it from the statistics. The cache may still be used
+     * afterwards, but no longer holds any entries.
+     */
+    public synchronized void removeCache(String name) {
+        Cache<?, ?> cache = caches.remove(name);
+        if (cache == null) {
+            return;
+        }
+        Iterator<Map.Entry<EntryKey, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<EntryKey, Entry> entry = iterator.next();
+            if (entry.getKey().cache == cache) {
+                iterator.remove();
+                onRemoved(entry.getKey(), entry.getValue());
+            }
+        }
+        cache.removed = true;
+    }
+
+    /**
+     * Drops the entries of all {@link Scope#ROUND round-scoped} caches. Should be called at the end of every round.
+     */
+    public synchronized void endRound() {
+        Iterator<Map.Entry<EntryKey, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<EntryKey, Entry> entry = iterator.next();
+            if (entry.getKey().cache.scope == Scope.ROUND) {
+                iterator.remove();
+                onRemoved(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Drops the entries of all caches.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+        for (Cache<?, ?> cache : caches.values()) {
+            cache.size = 0;
+            cache.weight = 0;
+        }
+    }
+
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * @return A human readable summary of the size and effectiveness of every cache.
+     */
+    public synchronized String getStatistics() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format(Locale.US, "metajava caches: %d entries, weight %d of %d%n", entries.size(),
+                                    totalWeight, budget));
+        for (Cache<?, ?> cache : caches.values()) {
+            long requests = cache.hits + cache.misses;
+            result.append(String.format(Locale.US,
+                                        "  %s (%s): %d entries, weight %d, %d hits, %d misses (%.1f%% hit rate), "
+                                                + "%d evictions%n", cache.name, cache.scope, cache.size, cache.weight,
+                                        cache.hits, cache.misses,
+                                        requests == 0 ? 0.0 : 100.0 * cache.hits / requests, cache.evictions));
+        }
+        return result.toString();
+    }
+
+    private synchronized Object get(Cache<?, ?> cache, Object key) {
+        Entry entry = entries.get(new EntryKey(cache, key));
+        if (entry == null) {
+            cache.misses++;
+            return null;
+        }
+        cache.hits++;
+        return entry.value;
+    }
+
+    private synchronized void put(Cache<?, ?> cache, Object key, Object value, int weight) {
+        if (weight > budget || cache.removed) {
+            return;
+        }
+        EntryKey entryKey = new EntryKey(cache, key);
+        Entry previous = entries.put(entryKey, new Entry(value, weight));
+        if (previous != null) {
+            onRemoved(entryKey, previous);
+        }
+        cache.size++;
+        cache.weight += weight;
+        totalWeight += weight;
+
+        Iterator<Map.Entry<EntryKey, Entry>> iterator = entries.entrySet().iterator();
+        while (totalWeight > budget) {
+            Map.Entry<EntryKey, Entry> eldest = iterator.next();
+            iterator.remove();
+            onRemoved(eldest.getKey(), eldest.getValue());
+            eldest.getKey().cache.evictions++;
+        }
+    }
+
+    private void onRemoved(EntryKey key, Entry entry) {
+        key.cache.size--;
+        key.cache.weight -= entry.weight;
+        totalWeight -= entry.weight;
+    }
+
+    /**
+     * A cache whose entries count towards the budget of its {@link CacheManager}. Neither keys nor values may be null.
+     */
+    public final class Cache<K, V> {
+
+        private final String name;
+        private final Scope scope;
+        private final Weigher<? super K, ? super V> weigher;
+        private int size;
+        private long weight;
+        private long hits;
+        private long misses;
+        private long evictions;
+        private boolean removed;
+
+        private Cache(String name, Scope scope, Weigher<? super K, ? super V> weigher) {
+            this.name = name;
+            this.scope = scope;
+            this.weigher = weigher;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Scope getScope() {
+            return scope;
+        }
+
+        /**
+         * @return The cached value, or null if there is none.
+         */
+        @SuppressWarnings("unchecked")
+        public V get(K key) {
+            return (V) CacheManager.this.get(this, key);
+        }
+
+        public void put(K key, V value) {
+            CacheManager.this.put(this, key, value, weigher == null ? 1 : weigher.weigh(key, value));
+        }
+
+        public int size() {
+            synchronized (CacheManager.this) {
+                return size;
+            }
+        }
+    }
+
+    private static final class EntryKey {
+
+        final Cache<?, ?> cache;
+        final Object key;
+
+        EntryKey(Cache<?, ?> cache, Object key) {
+            this.cache = cache;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof EntryKey)) {
+                return false;
+            }
+            EntryKey other = (EntryKey) o;
+            return cache == other.cache && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(cache) + key.hashCode();
+        }
+    }
+
+    private static final class Entry {
+
+        final Object value;
+        final int weight;
+
+        Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
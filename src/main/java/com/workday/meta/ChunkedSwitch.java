@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates lookup methods that map a key to a result with a {@code switch}, split over several methods once there are
+ * more than {@link #MAX_CASES_PER_METHOD} keys. The JVM limits each method to 64 KB of bytecode, which a single switch
+ * over a few thousand keys exceeds. Split lookups first switch on a bucket of the key and then call the method holding
+ * the switch for that bucket, so a lookup costs two switches however many keys there are.
+ * <p>
+ * The generated methods are private instance methods, so they may be placed in any class body, including anonymous and
+ * inner classes.
+ */
+final class ChunkedSwitch {
+
+    /**
+     * The number of keys above which a lookup is split over several methods. Split lookups hold at most this many keys
+     * per method for int keys, and about half as many on average for string keys.
+     */
+    static final int MAX_CASES_PER_METHOD = 256;
+
+    private ChunkedSwitch() {}
+
+    /**
+     * Appends a method {@code private <resultType> <methodName>(java.lang.String key)} that returns the result for the
+     * given key.
+     *
+     * @param indent The indentation of the generated methods.
+     * @param results The result expression of each key.
+     * @param defaultStatement The statement to execute for keys without a result, e.g. {@code return null;}.
+     */
+    static void appendStringLookup(StringBuilder result, String indent, String methodName, String resultType,
+                                   Map<String, String> results, String defaultStatement) {
+        if (results.size() <= MAX_CASES_PER_METHOD) {
+            appendStringSwitchMethod(result, indent, methodName, resultType, results, defaultStatement);
+            return;
+        }
+
+        // Buckets by the low bits of the key's hash code, which String specifies, so it is the same at runtime. There
+        // are twice as many buckets as needed on average, so that uneven buckets still stay well below the limit.
+        int minimumBucketCount = (2 * results.size() + MAX_CASES_PER_METHOD - 1) / MAX_CASES_PER_METHOD;
+        int bucketCount = Integer.highestOneBit(minimumBucketCount - 1) << 1;
+        List<Map<String, String>> buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.add(new LinkedHashMap<String, String>());
+        }
+        for (Map.Entry<String, String> entry : results.entrySet()) {
+            buckets.get(entry.getKey().hashCode() & (bucketCount - 1)).put(entry.getKey(), entry.getValue());
+        }
+
+        appendMethodStart(result, indent, methodName, resultType, "java.lang.String");
+        result.append(indent).append("    switch (key.hashCode() & ").append(bucketCount - 1).append(") {\n");
+        for (int i = 0; i < bucketCount; i++) {
+            if (!buckets.get(i).isEmpty()) {
+                appendCase(result, indent, String.valueOf(i), methodName + i + "(key)");
+            }
+        }
+        appendMethodEnd(result, indent, defaultStatement);
+        for (int i = 0; i < bucketCount; i++) {
+            if (!buckets.get(i).isEmpty()) {
+                appendStringSwitchMethod(result, indent, methodName + i, resultType, buckets.get(i),
+                                         defaultStatement);
+            }
+        }
+    }
+
+    /**
+     * Appends a method {@code private <resultType> <methodName>(int key)} that returns the result for the given key.
+     *
+     * @param indent The indentation of the generated methods.
+     * @param results The result expression of each key, where the key is the index in the list.
+     * @param defaultStatement The statement to execute for keys without a result, e.g. {@code return null;}.
+     */
+    static void appendIntLookup(StringBuilder result, String indent, String methodName, String resultType,
+                                List<String> results, String defaultStatement) {
+        if (results.size() <= MAX_CASES_PER_METHOD) {
+            appendIntSwitchMethod(result, indent, methodName, resultType, results, 0, results.size(),
+                                  defaultStatement);
+            return;
+        }
+
+        int chunkCount = (results.size() + MAX_CASES_PER_METHOD - 1) / MAX_CASES_PER_METHOD;
+        appendMethodStart(result, indent, methodName, resultType, "int");
+        result.append(indent).append("    switch (key / ").append(MAX_CASES_PER_METHOD).append(") {\n");
+        for (int i = 0; i < chunkCount; i++) {
+            appendCase(result, indent, String.valueOf(i), methodName + i + "(key)");
+        }
+        appendMethodEnd(result, indent, defaultStatement);
+        for (int i = 0; i < chunkCount; i++) {
+            int start = i * MAX_CASES_PER_METHOD;
+            appendIntSwitchMethod(result, indent, methodName + i, resultType, results, start,
+                                  Math.min(start + MAX_CASES_PER_METHOD, results.size()), defaultStatement);
+        }
+    }
+
+    private static void appendStringSwitchMethod(StringBuilder result, String indent, String methodName,
+                                                 String resultType, Map<String, String> results,
+                                                 String defaultStatement) {
+        appendMethodStart(result, indent, methodName, resultType, "java.lang.String");
+        result.append(indent).append("    switch (key) {\n");
+        for (Map.Entry<String, String> entry : results.entrySet()) {
+            appendCase(result, indent, '"' + entry.getKey() + '"', entry.getValue());
+        }
+        appendMethodEnd(result, indent, defaultStatement);
+    }
+
+    private static void appendIntSwitchMethod(StringBuilder result, String indent, String methodName,
+                                              String resultType, List<String> results, int start, int end,
+                                              String defaultStatement) {
+        appendMethodStart(result, indent, methodName, resultType, "int");
+        result.append(indent).append("    switch (key) {\n");
+        for (int key = start; key < end; key++) {
+            appendCase(result, indent, String.valueOf(key), results.get(key));
+        }
+        appendMethodEnd(result, indent, defaultStatement);
+    }
+
+    private static void appendMethodStart(StringBuilder result, String indent, String methodName, String resultType,
+                                          String keyType) {
+        result.append('\n');
+        result.append(indent).append("private ").append(resultType).append(' ').append(methodName).append('(')
+              .append(keyType).append(" key) {\n");
+    }
+
+    private static void appendCase(StringBuilder result, String indent, String label, String resultExpression) {
+        result.append(indent).append("        case ").append(label).append(":\n");
+        result.append(indent).append("            return ").append(resultExpression).append(";\n");
+    }
+
+    private static void appendMethodEnd(StringBuilder result, String indent, String defaultStatement) {
+        result.append(indent).append("        default:\n");
+        result.append(indent).append("            ").append(defaultStatement).append('\n');
+        result.append(indent).append("    }\n");
+        result.append(indent).append("}\n");
+    }
+}
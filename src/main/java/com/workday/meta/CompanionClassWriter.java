@@ -0,0 +1,436 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+
+/**
+ * Generates simple companion classes either as source files or directly as class files. Writing class files saves the
+ * compiler from parsing and compiling the companions in another round, which adds up for modules with many of them.
+ * <p>
+ * Only the following shapes are supported, which is what makes it feasible to emit bytecode without a bytecode
+ * library:
+ * <ul>
+ *     <li>A {@code public final} class with a private no-argument constructor.</li>
+ *     <li>{@code public static final} {@code String} and {@code int} constants, such as field names.</li>
+ *     <li>{@code public static} factory methods returning a new instance of a class with a public no-argument
+ *     constructor, such as the implementations chosen by {@link Initializers#findCollectionImplementation}.</li>
+ * </ul>
+ * Both modes produce classes with the same members, signatures and behavior, so switching between them is transparent
+ * to the code using the companions.
+ */
+public class CompanionClassWriter {
+
+    public enum Mode {
+        SOURCE,
+        CLASS_FILE
+    }
+
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+    private static final int JAVA_7_MAJOR_VERSION = 51;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ALOAD_0 = 0x2a;
+    private static final int DUP = 0x59;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int NEW = 0xbb;
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String CONSTRUCTOR = "<init>";
+    private static final String NO_ARG_CONSTRUCTOR_DESCRIPTOR = "()V";
+
+    private final String binaryName;
+    private final List<Constant> constants = new ArrayList<>();
+    private final List<FactoryMethod> factoryMethods = new ArrayList<>();
+
+    /**
+     * @param binaryName The binary name of the class to generate, for example as returned by {@link
+     * MetaTypeNames#constructTypeName(javax.lang.model.element.TypeElement, String)}. The class is generated as a top
+     * level class of this name.
+     */
+    public CompanionClassWriter(String binaryName) {
+        this.binaryName = binaryName;
+    }
+
+    public CompanionClassWriter addConstant(String name, String value) {
+        constants.add(new Constant(name, value));
+        return this;
+    }
+
+    public CompanionClassWriter addConstant(String name, int value) {
+        constants.add(new Constant(name, value));
+        return this;
+    }
+
+    /**
+     * Adds a method that returns a new instance of {@code implementation}. If {@code implementation} is generic, then so
+     * is the method, e.g. {@code public static <E> java.util.ArrayList<E> newItems()}.
+     *
+     * @throws IllegalArgumentException If {@code implementation} is not a public, concrete class with a public
+     * no-argument constructor, or if any of its type parameters is bounded.
+     */
+    public CompanionClassWriter addFactoryMethod(String methodName, Class<?> implementation) {
+        checkImplementation(implementation);
+        factoryMethods.add(new FactoryMethod(methodName, implementation));
+        return this;
+    }
+
+    /**
+     * Rejects implementations that either mode could not instantiate in the same way, since the source would fail to
+     * compile while the class file would only fail when the factory method is called.
+     */
+    private static void checkImplementation(Class<?> implementation) {
+        for (Class<?> type = implementation; type != null; type = type.getEnclosingClass()) {
+            if (!Modifier.isPublic(type.getModifiers()) || type.isLocalClass() || type.isAnonymousClass()) {
+                throw new IllegalArgumentException(implementation.getName() + " is not publicly accessible.");
+            }
+        }
+        if (Modifier.isAbstract(implementation.getModifiers())) {
+            throw new IllegalArgumentException(implementation.getName() + " is abstract or an interface.");
+        }
+        try {
+            implementation.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(implementation.getName() + " does not have a public no-argument "
+                                                       + "constructor.", e);
+        }
+        for (TypeVariable<?> typeParameter : implementation.getTypeParameters()) {
+            Type[] bounds = typeParameter.getBounds();
+            if (bounds.length != 1 || bounds[0] != Object.class) {
+                throw new IllegalArgumentException(
+                        String.format("Type parameter %s of %s is bounded.", typeParameter.getName(),
+                                      implementation.getName()));
+            }
+        }
+    }
+
+    public void write(Filer filer, Mode mode, Element... originatingElements) throws IOException {
+        if (mode == Mode.CLASS_FILE) {
+            try (OutputStream outputStream = filer.createClassFile(binaryName, originatingElements)
+                                                  .openOutputStream()) {
+                outputStream.write(generateClassFile());
+            }
+        } else {
+            try (Writer writer = filer.createSourceFile(binaryName, originatingElements).openWriter()) {
+                writer.write(generateSource());
+            }
+        }
+    }
+
+    public String generateSource() {
+        StringBuilder result = new StringBuilder();
+        int lastDot = binaryName.lastIndexOf('.');
+        String simpleName = binaryName.substring(lastDot + 1);
+        if (lastDot >= 0) {
+            result.append("package ").append(binaryName.substring(0, lastDot)).append(";\n\n");
+        }
+        result.append("public final class ").append(simpleName).append(" {\n\n");
+        for (Constant constant : constants) {
+            if (constant.value instanceof String) {
+                result.append("    public static final java.lang.String ").append(constant.name).append(" = ")
+                      .append(toStringLiteral((String) constant.value)).append(";\n");
+            } else {
+                result.append("    public static final int ").append(constant.name).append(" = ")
+                      .append(constant.value).append(";\n");
+            }
+        }
+        if (!constants.isEmpty()) {
+            result.append('\n');
+        }
+        result.append("    private ").append(simpleName).append("() {}\n");
+        for (FactoryMethod method : factoryMethods) {
+            String typeParameters = method.getSourceTypeParameters();
+            String type = method.implementation.getCanonicalName() + typeParameters;
+            result.append("\n");
+            result.append("    public static ").append(typeParameters.isEmpty() ? "" : typeParameters + " ")
+                  .append(type).append(' ').append(method.name).append("() {\n");
+            result.append("        return new ").append(type).append("();\n");
+            result.append("    }\n");
+        }
+        result.append("}\n");
+        return result.toString();
+    }
+
+    public byte[] generateClassFile() {
+        ConstantPool pool = new ConstantPool();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            writeClassBody(new DataOutputStream(body), pool);
+
+            ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(classFile);
+            out.writeInt(CLASS_FILE_MAGIC);
+            out.writeShort(0);
+            out.writeShort(JAVA_7_MAJOR_VERSION);
+            pool.writeTo(out);
+            body.writeTo(out);
+            out.flush();
+            return classFile.toByteArray();
+        } catch (IOException e) {
+            // In-memory streams do not throw.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeClassBody(DataOutputStream out, ConstantPool pool) throws IOException {
+        String internalName = binaryName.replace('.', '/');
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(pool.classRef(internalName));
+        out.writeShort(pool.classRef(OBJECT));
+        out.writeShort(0); // interfaces
+
+        out.writeShort(constants.size());
+        for (Constant constant : constants) {
+            boolean isString = constant.value instanceof String;
+            out.writeShort(ACC_PUBLIC | ACC_STATIC | ACC_FINAL);
+            out.writeShort(pool.utf8(constant.name));
+            out.writeShort(pool.utf8(isString ? "Ljava/lang/String;" : "I"));
+            out.writeShort(1); // attributes
+            out.writeShort(pool.utf8("ConstantValue"));
+            out.writeInt(2);
+            out.writeShort(isString ? pool.string((String) constant.value) : pool.integer((Integer) constant.value));
+        }
+
+        out.writeShort(1 + factoryMethods.size());
+
+        // private constructor
+        out.writeShort(ACC_PRIVATE);
+        out.writeShort(pool.utf8(CONSTRUCTOR));
+        out.writeShort(pool.utf8(NO_ARG_CONSTRUCTOR_DESCRIPTOR));
+        out.writeShort(1); // attributes
+        writeCode(out, pool, 1, 1, ALOAD_0, INVOKESPECIAL, pool.methodRef(OBJECT, CONSTRUCTOR,
+                                                                          NO_ARG_CONSTRUCTOR_DESCRIPTOR), RETURN);
+
+        for (FactoryMethod method : factoryMethods) {
+            String implementationName = method.implementation.getName().replace('.', '/');
+            String signature = method.getSignature();
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(pool.utf8(method.name));
+            out.writeShort(pool.utf8("()L" + implementationName + ";"));
+            out.writeShort(signature == null ? 1 : 2); // attributes
+            int classIndex = pool.classRef(implementationName);
+            int constructorIndex = pool.methodRef(implementationName, CONSTRUCTOR, NO_ARG_CONSTRUCTOR_DESCRIPTOR);
+            writeCode(out, pool, 2, 0, NEW, classIndex, DUP, INVOKESPECIAL, constructorIndex, ARETURN);
+            if (signature != null) {
+                out.writeShort(pool.utf8("Signature"));
+                out.writeInt(2);
+                out.writeShort(pool.utf8(signature));
+            }
+        }
+
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * Writes a Code attribute without exception handlers or attributes of its own.
+     *
+     * @param instructions Opcodes, each of which is followed by its constant pool index operand if it takes one.
+     */
+    private static void writeCode(DataOutputStream out, ConstantPool pool, int maxStack, int maxLocals,
+                                  int... instructions) throws IOException {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        DataOutputStream codeOut = new DataOutputStream(code);
+        for (int i = 0; i < instructions.length; i++) {
+            int opcode = instructions[i];
+            codeOut.writeByte(opcode);
+            if (opcode == NEW || opcode == INVOKESPECIAL) {
+                codeOut.writeShort(instructions[++i]);
+            }
+        }
+        codeOut.flush();
+
+        out.writeShort(pool.utf8("Code"));
+        out.writeInt(2 + 2 + 4 + code.size() + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    private static String toStringLiteral(String value) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c >= 0x20 && c < 0x7f) {
+                result.append(c);
+            } else if (c < 0x80) {
+                // Unicode escapes of line terminators would end the literal, since they are translated before parsing.
+                result.append(String.format(Locale.US, "\\%03o", (int) c));
+            } else {
+                result.append(String.format(Locale.US, "\\u%04x", (int) c));
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    private static class Constant {
+
+        final String name;
+        final Object value;
+
+        Constant(String name, Object value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private static class FactoryMethod {
+
+        final String name;
+        final Class<?> implementation;
+
+        FactoryMethod(String name, Class<?> implementation) {
+            this.name = name;
+            this.implementation = implementation;
+        }
+
+        /**
+         * @return The type parameters of the method in source form, e.g. {@code <K, V>}, or an empty string.
+         */
+        String getSourceTypeParameters() {
+            TypeVariable<?>[] typeParameters = implementation.getTypeParameters();
+            if (typeParameters.length == 0) {
+                return "";
+            }
+            StringBuilder result = new StringBuilder("<");
+            for (int i = 0; i < typeParameters.length; i++) {
+                result.append(i == 0 ? "" : ", ").append(typeParameters[i].getName());
+            }
+            return result.append('>').toString();
+        }
+
+        /**
+         * @return The generic signature of the method, e.g. {@code <E:Ljava/lang/Object;>()Ljava/util/ArrayList<TE;>;},
+         * or null if the method is not generic. Every type parameter is bounded by {@code Object} only, since others are
+         * rejected when the method is added.
+         */
+        String getSignature() {
+            TypeVariable<?>[] typeParameters = implementation.getTypeParameters();
+            if (typeParameters.length == 0) {
+                return null;
+            }
+            StringBuilder declarations = new StringBuilder("<");
+            StringBuilder arguments = new StringBuilder("<");
+            for (TypeVariable<?> typeParameter : typeParameters) {
+                declarations.append(typeParameter.getName()).append(":L").append(OBJECT).append(';');
+                arguments.append('T').append(typeParameter.getName()).append(';');
+            }
+            return declarations.append(">()L").append(implementation.getName().replace('.', '/'))
+                               .append(arguments).append(">;").toString();
+        }
+    }
+
+    private static class ConstantPool {
+
+        private static final int CONSTANT_UTF8 = 1;
+        private static final int CONSTANT_INTEGER = 3;
+        private static final int CONSTANT_CLASS = 7;
+        private static final int CONSTANT_STRING = 8;
+        private static final int CONSTANT_METHODREF = 10;
+        private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(entries);
+        private int nextIndex = 1;
+
+        int utf8(String value) throws IOException {
+            String key = "utf8:" + value;
+            Integer index = indices.get(key);
+            if (index == null) {
+                out.writeByte(CONSTANT_UTF8);
+                out.writeUTF(value);
+                index = register(key);
+            }
+            return index;
+        }
+
+        int integer(int value) throws IOException {
+            String key = "integer:" + value;
+            Integer index = indices.get(key);
+            if (index == null) {
+                out.writeByte(CONSTANT_INTEGER);
+                out.writeInt(value);
+                index = register(key);
+            }
+            return index;
+        }
+
+        int string(String value) throws IOException {
+            return reference(CONSTANT_STRING, "string:" + value, utf8(value));
+        }
+
+        int classRef(String internalName) throws IOException {
+            return reference(CONSTANT_CLASS, "class:" + internalName, utf8(internalName));
+        }
+
+        int methodRef(String owner, String name, String descriptor) throws IOException {
+            String key = "method:" + owner + '.' + name + descriptor;
+            Integer index = indices.get(key);
+            if (index == null) {
+                int classIndex = classRef(owner);
+                int nameAndTypeIndex = reference(CONSTANT_NAME_AND_TYPE, "nameAndType:" + name + descriptor,
+                                                 utf8(name), utf8(descriptor));
+                index = reference(CONSTANT_METHODREF, key, classIndex, nameAndTypeIndex);
+            }
+            return index;
+        }
+
+        /**
+         * Adds an entry consisting of a tag followed by the indices of other entries, unless it already exists.
+         */
+        private int reference(int tag, String key, int... referencedIndices) throws IOException {
+            Integer index = indices.get(key);
+            if (index == null) {
+                out.writeByte(tag);
+                for (int referencedIndex : referencedIndices) {
+                    out.writeShort(referencedIndex);
+                }
+                index = register(key);
+            }
+            return index;
+        }
+
+        private int register(String key) {
+            int index = nextIndex++;
+            indices.put(key, index);
+            return index;
+        }
+
+        void writeTo(DataOutputStream classFile) throws IOException {
+            out.flush();
+            classFile.writeShort(nextIndex);
+            entries.writeTo(classFile);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+/**
+ * A compile-time generated index of the companion classes for a single suffix (see {@link
+ * ConcreteTypeNames#constructClassName(Class, String)}). Implementations are generated by {@link
+ * CompanionIndexGenerator} and let a {@link CompanionRegistry} find and instantiate companions without {@link
+ * Class#forName(String)} or reflection.
+ */
+public interface CompanionIndex {
+
+    /**
+     * @return The suffix of the companions in this index.
+     */
+    String getSuffix();
+
+    /**
+     * @return The factory for the companion of the given class, or null if this index does not contain one.
+     */
+    Factory getFactory(Class<?> type);
+
+    /**
+     * Instantiates the companion of a single class. Factories are looked up once per class and then cached by the
+     * {@link CompanionRegistry}, so creating a companion does not repeat the lookup.
+     */
+    interface Factory {
+
+        Class<?> getCompanionClass();
+
+        Object newCompanion();
+    }
+}
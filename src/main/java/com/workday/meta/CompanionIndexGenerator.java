@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a {@link CompanionIndex} for the companions a processor generates, so that a {@link CompanionRegistry} can
+ * find them at runtime without loading them by name. Types may be added over several rounds; the index should be
+ * written once, after the last companion has been generated.
+ * <p>
+ * The generated index refers to the companions directly, so they must be public, or in the package of the index.
+ */
+public class CompanionIndexGenerator {
+
+    private final String indexClassName;
+    private final String suffix;
+    private final Map<String, TypeElement> types = new TreeMap<>();
+
+    /**
+     * @param indexClassName The fully qualified name of the index class to generate.
+     * @param suffix The suffix the companions are generated with.
+     */
+    public CompanionIndexGenerator(String indexClassName, String suffix) {
+        this.indexClassName = indexClassName;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Adds a type whose companion should be part of the index.
+     */
+    public void addType(TypeElement type) {
+        types.put(MetaTypeNames.constructTypeName(type), type);
+    }
+
+    public boolean isEmpty() {
+        return types.isEmpty();
+    }
+
+    public void write(Filer filer) throws IOException {
+        JavaFileObject sourceFile = filer.createSourceFile(indexClassName,
+                                                           types.values().toArray(new TypeElement[types.size()]));
+        try (Writer writer = sourceFile.openWriter()) {
+            writer.write(generateSource());
+        }
+    }
+
+    public String generateSource() {
+        StringBuilder result = new StringBuilder();
+        int lastDot = indexClassName.lastIndexOf('.');
+        if (lastDot >= 0) {
+            result.append("package ").append(indexClassName.substring(0, lastDot)).append(";\n\n");
+        }
+        result.append("public final class ").append(indexClassName.substring(lastDot + 1))
+              .append(" implements ").append(CompanionIndex.class.getCanonicalName()).append(" {\n\n");
+
+        result.append("    @java.lang.Override\n");
+        result.append("    public java.lang.String getSuffix() {\n");
+        result.append("        return \"").append(suffix).append("\";\n");
+        result.append("    }\n\n");
+
+        Map<String, String> factories = new LinkedHashMap<>();
+        List<String> companionClasses = new ArrayList<>(types.size());
+        List<String> newCompanions = new ArrayList<>(types.size());
+        for (String typeName : types.keySet()) {
+            factories.put(typeName, "new IndexedFactory(" + factories.size() + ")");
+            companionClasses.add(typeName + suffix + ".class");
+            newCompanions.add("new " + typeName + suffix + "()");
+        }
+
+        // The lookups are split over several methods for large indexes, which a single switch would not fit in.
+        String factoryName = CompanionIndex.Factory.class.getCanonicalName();
+        result.append("    @java.lang.Override\n");
+        result.append("    public ").append(factoryName).append(" getFactory(java.lang.Class<?> type) {\n");
+        result.append("        return findFactory(type.getName());\n");
+        result.append("    }\n");
+        ChunkedSwitch.appendStringLookup(result, "    ", "findFactory", factoryName, factories, "return null;");
+
+        // A single factory class switching on a dense id, rather than one class per companion.
+        result.append("\n    private static final class IndexedFactory implements ").append(factoryName)
+              .append(" {\n\n");
+        result.append("        private final int id;\n\n");
+        result.append("        IndexedFactory(int id) {\n");
+        result.append("            this.id = id;\n");
+        result.append("        }\n\n");
+        result.append("        @java.lang.Override\n");
+        result.append("        public java.lang.Class<?> getCompanionClass() {\n");
+        result.append("            return findCompanionClass(id);\n");
+        result.append("        }\n\n");
+        result.append("        @java.lang.Override\n");
+        result.append("        public java.lang.Object newCompanion() {\n");
+        result.append("            return createCompanion(id);\n");
+        result.append("        }\n");
+        ChunkedSwitch.appendIntLookup(result, "        ", "findCompanionClass", "java.lang.Class<?>", companionClasses,
+                                      "throw new java.lang.AssertionError(key);");
+        ChunkedSwitch.appendIntLookup(result, "        ", "createCompanion", "java.lang.Object", newCompanions,
+                                      "throw new java.lang.AssertionError(key);");
+        result.append("    }\n");
+        result.append("}\n");
+        return result.toString();
+    }
+}
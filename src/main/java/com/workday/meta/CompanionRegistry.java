@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds and instantiates the generated companions of classes at runtime, where the companion of a class is the class
+ * named by {@link ConcreteTypeNames#constructClassName(Class, String)} for this registry's suffix.
+ * <p>
+ * The companion of each class is resolved at most once and then cached in a {@link ClassValue}. Companions are first
+ * looked up in the {@link CompanionIndex}es the registry was created with, which needs neither {@link
+ * Class#forName(String)} nor reflection, and whose {@link CompanionIndex.Factory} is cached. Only classes missing from
+ * every index fall back to loading the companion by name, in which case its public no-argument constructor is cached
+ * as a {@link MethodHandle}.
+ * <p>
+ * Instances are thread safe and are intended to be held in a static field.
+ */
+public final class CompanionRegistry {
+
+    private static final MethodType NO_ARG_CONSTRUCTOR = MethodType.methodType(void.class);
+
+    private final String suffix;
+    private final List<CompanionIndex> indexes;
+    private final ClassValue<Companion> companions = new ClassValue<Companion>() {
+        @Override
+        protected Companion computeValue(Class<?> type) {
+            return resolveCompanion(type);
+        }
+    };
+
+    /**
+     * @param suffix The suffix the companions were generated with.
+     * @param indexes Generated indexes to consult before falling back to loading companions by name.
+     */
+    public CompanionRegistry(String suffix, CompanionIndex... indexes) {
+        for (CompanionIndex index : indexes) {
+            if (!suffix.equals(index.getSuffix())) {
+                throw new IllegalArgumentException(
+                        String.format("Index %s is for suffix '%s' but the registry is for suffix '%s'.",
+                                      index.getClass().getName(), index.getSuffix(), suffix));
+            }
+        }
+        this.suffix = suffix;
+        this.indexes = Arrays.asList(indexes.clone());
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * @return The companion class of the given class, or null if it does not have one.
+     */
+    public Class<?> getCompanionClass(Class<?> type) {
+        return companions.get(type).companionClass;
+    }
+
+    public boolean hasCompanion(Class<?> type) {
+        return getCompanionClass(type) != null;
+    }
+
+    /**
+     * Creates a new instance of the companion of the given class.
+     *
+     * @throws IllegalArgumentException If the class does not have a companion.
+     */
+    public Object newCompanion(Class<?> type) {
+        return companions.get(type).newInstance();
+    }
+
+    /**
+     * Same as {@link #newCompanion(Class)}, but casts the companion to the given type.
+     */
+    public <T> T newCompanion(Class<?> type, Class<T> companionType) {
+        return companionType.cast(newCompanion(type));
+    }
+
+    private Companion resolveCompanion(Class<?> type) {
+        for (CompanionIndex index : indexes) {
+            CompanionIndex.Factory factory = index.getFactory(type);
+            if (factory != null) {
+                return new IndexedCompanion(factory);
+            }
+        }
+
+        Class<?> companionClass;
+        try {
+            companionClass = Class.forName(ConcreteTypeNames.constructClassName(type, suffix), true,
+                                           type.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return new MissingCompanion(type, suffix);
+        }
+
+        try {
+            MethodHandle constructor = MethodHandles.publicLookup().findConstructor(companionClass,
+                                                                                     NO_ARG_CONSTRUCTOR);
+            return new ReflectiveCompanion(companionClass, constructor);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException(
+                    String.format("Companion %s must have a public no-argument constructor.", companionClass.getName()),
+                    e);
+        }
+    }
+
+    private abstract static class Companion {
+
+        final Class<?> companionClass;
+
+        Companion(Class<?> companionClass) {
+            this.companionClass = companionClass;
+        }
+
+        abstract Object newInstance();
+    }
+
+    private static class MissingCompanion extends Companion {
+
+        private final Class<?> type;
+        private final String suffix;
+
+        MissingCompanion(Class<?> type, String suffix) {
+            super(null);
+            this.type = type;
+            this.suffix = suffix;
+        }
+
+        @Override
+        Object newInstance() {
+            throw new IllegalArgumentException(
+                    String.format("%s does not have a companion with suffix '%s'.", type.getName(), suffix));
+        }
+    }
+
+    private static class IndexedCompanion extends Companion {
+
+        private final CompanionIndex.Factory factory;
+
+        IndexedCompanion(CompanionIndex.Factory factory) {
+            super(factory.getCompanionClass());
+            this.factory = factory;
+        }
+
+        @Override
+        Object newInstance() {
+            return factory.newCompanion();
+        }
+    }
+
+    private static class ReflectiveCompanion extends Companion {
+
+        private final MethodHandle constructor;
+
+        ReflectiveCompanion(Class<?> companionClass, MethodHandle constructor) {
+            super(companionClass);
+            this.constructor = constructor;
+        }
+
+        @Override
+        Object newInstance() {
+            try {
+                return constructor.invoke();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(
+                        String.format("Could not instantiate companion %s.", companionClass.getName()), t);
+            }
+        }
+    }
+}
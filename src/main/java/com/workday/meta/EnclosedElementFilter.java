@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.util.EnumSet;
+import java.util.Set;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+
+/**
+ * Visits the elements enclosed by an element that are of certain kinds and have certain modifiers, in a single pass
+ * and without building intermediate lists. This replaces the combination of {@link Element#getEnclosedElements()},
+ * {@link javax.lang.model.util.ElementFilter} and the modifier checks in {@link CodeAnalysisUtils}.
+ * <p>
+ * For example, the following visits all instance fields that are not private, including those of nested types:
+ * <pre>{@code
+ * EnclosedElementFilter filter = new EnclosedElementFilter(EnumSet.of(ElementKind.FIELD), Modifiers.NONE,
+ *                                                          EnumSet.of(Modifier.STATIC, Modifier.PRIVATE), true);
+ * filter.scan(typeElement, callback);
+ * }</pre>
+ * Instances are immutable and may be reused for any number of elements.
+ */
+public final class EnclosedElementFilter {
+
+    private final Set<ElementKind> kinds;
+    private final Set<Modifier> requiredModifiers;
+    private final Set<Modifier> forbiddenModifiers;
+    private final boolean recursive;
+
+    /**
+     * @param kinds The kinds of elements to visit.
+     * @param requiredModifiers Elements are only visited if they have all of these modifiers.
+     * @param forbiddenModifiers Elements are only visited if they have none of these modifiers.
+     * @param recursive Whether to also scan the elements enclosed by nested types, regardless of whether the nested
+     * types themselves are visited.
+     */
+    public EnclosedElementFilter(Set<ElementKind> kinds, Set<Modifier> requiredModifiers,
+                                 Set<Modifier> forbiddenModifiers, boolean recursive) {
+        this.kinds = copyOf(kinds, ElementKind.class);
+        this.requiredModifiers = copyOf(requiredModifiers, Modifier.class);
+        this.forbiddenModifiers = copyOf(forbiddenModifiers, Modifier.class);
+        this.recursive = recursive;
+    }
+
+    private static <E extends Enum<E>> EnumSet<E> copyOf(Set<E> set, Class<E> clazz) {
+        EnumSet<E> copy = EnumSet.noneOf(clazz);
+        copy.addAll(set);
+        return copy;
+    }
+
+    /**
+     * Calls {@code callback} for every element enclosed by {@code parent} that passes this filter, in the order of
+     * {@link Element#getEnclosedElements()}. When scanning recursively, the elements of a nested type are visited
+     * directly after the nested type itself.
+     */
+    public void scan(Element parent, Callback callback) {
+        for (Element element : parent.getEnclosedElements()) {
+            if (matches(element)) {
+                callback.visit(element);
+            }
+            ElementKind kind = element.getKind();
+            if (recursive && (kind.isClass() || kind.isInterface())) {
+                scan(element, callback);
+            }
+        }
+    }
+
+    public boolean matches(Element element) {
+        return kinds.contains(element.getKind()) && hasModifiers(element.getModifiers());
+    }
+
+    private boolean hasModifiers(Set<Modifier> modifiers) {
+        if (!modifiers.containsAll(requiredModifiers)) {
+            return false;
+        }
+        for (Modifier modifier : forbiddenModifiers) {
+            if (modifiers.contains(modifier)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public interface Callback {
+
+        void visit(Element element);
+    }
+}
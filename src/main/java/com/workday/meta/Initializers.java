@@ -7,7 +7,14 @@
 
 package com.workday.meta;
 
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -26,30 +33,266 @@ import java.util.TreeSet;
  */
 public final class Initializers {
 
+    /**
+     * Controls what kind of expression the {@code find*Initializer} methods produce.
+     */
+    public enum Mode {
+        /**
+         * Always instantiate a new, empty collection (e.g. {@code new java.util.ArrayList<>()}).
+         */
+        EAGER,
+        /**
+         * Where the declared type allows it, initialize with the shared immutable empty instance from {@link
+         * java.util.Collections} (e.g. {@code java.util.Collections.emptyList()}), so that no collection is allocated
+         * until the first write. Generated code that writes to such a field must first run the statement returned by
+         * {@link #findCollectionMaterializer(DeclaredType, String)} or {@link #findMapMaterializer(DeclaredType,
+         * String)}.
+         */
+        EMPTY_SENTINEL
+    }
+
+    /**
+     * Returned by {@link #findExpectedSize(Element)} when there is no size hint for a field.
+     */
+    public static final int UNKNOWN_SIZE = -1;
+
+    /**
+     * The largest expected size collections are presized for. Size annotations usually give an upper bound rather than
+     * the typical size, so larger hints are capped to avoid allocating huge, mostly empty collections.
+     */
+    public static final int MAX_EXPECTED_SIZE = 1024;
+
+    private static final float HASH_LOAD_FACTOR = 0.75f;
+
     private final MetaTypes metaTypes;
+    private final Mode mode;
+    private final Map<String, String> sizeAnnotations = new HashMap<>();
+    private int defaultExpectedSize = UNKNOWN_SIZE;
 
     public Initializers(MetaTypes metaTypes) {
+        this(metaTypes, Mode.EAGER);
+    }
+
+    public Initializers(MetaTypes metaTypes, Mode mode) {
         this.metaTypes = metaTypes;
+        this.mode = mode;
+        sizeAnnotations.put("javax.validation.constraints.Size", "max");
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Registers an annotation whose {@code int} member gives the expected size of the collection or map field it is
+     * placed on. {@code javax.validation.constraints.Size#max} is registered by default.
+     *
+     * @param annotationName The qualified name of the annotation.
+     * @param memberName The name of the member holding the size.
+     */
+    public Initializers addSizeAnnotation(String annotationName, String memberName) {
+        sizeAnnotations.put(annotationName, memberName);
+        return this;
+    }
+
+    /**
+     * Sets the expected size used for fields without a size annotation, e.g. from a processor option. Defaults to
+     * {@link #UNKNOWN_SIZE}, in which case such fields are initialized with the default capacity.
+     */
+    public Initializers setDefaultExpectedSize(int defaultExpectedSize) {
+        this.defaultExpectedSize = defaultExpectedSize < 0
+                ? UNKNOWN_SIZE
+                : Math.min(defaultExpectedSize, MAX_EXPECTED_SIZE);
+        return this;
+    }
+
+    /**
+     * Returns the expected size of a collection or map field, as given by the first registered size annotation present
+     * on the field (see {@link #addSizeAnnotation(String, String)}) or otherwise the default expected size. Only
+     * explicitly given annotation values are considered, and sizes are capped at {@link #MAX_EXPECTED_SIZE}.
+     *
+     * @return The expected size, or {@link #UNKNOWN_SIZE} if there is none.
+     */
+    public int findExpectedSize(Element field) {
+        for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+            String memberName = sizeAnnotations.get(annotationType.getQualifiedName().toString());
+            if (memberName == null) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation
+                    .getElementValues().entrySet()) {
+                Object value = entry.getValue().getValue();
+                if (entry.getKey().getSimpleName().contentEquals(memberName) && value instanceof Integer
+                        && (Integer) value >= 0) {
+                    return Math.min((Integer) value, MAX_EXPECTED_SIZE);
+                }
+            }
+        }
+        return defaultExpectedSize;
     }
 
     public String findCollectionInitializer(DeclaredType type) throws InvalidTypeException {
-        String initializer;
+        return findCollectionInitializer(type, UNKNOWN_SIZE);
+    }
+
+    /**
+     * Same as {@link #findCollectionInitializer(DeclaredType)}, but for a field, so that a new collection is presized
+     * according to {@link #findExpectedSize(Element)}, e.g. {@code new java.util.ArrayList<>(20)}.
+     */
+    public String findCollectionInitializer(Element field) throws InvalidTypeException {
+        return findCollectionInitializer(getDeclaredType(field), findExpectedSize(field));
+    }
+
+    public String findMapInitializer(DeclaredType type) throws InvalidTypeException {
+        return findMapInitializer(type, UNKNOWN_SIZE);
+    }
+
+    /**
+     * The {@link Map} counterpart of {@link #findCollectionInitializer(Element)}.
+     */
+    public String findMapInitializer(Element field) throws InvalidTypeException {
+        return findMapInitializer(getDeclaredType(field), findExpectedSize(field));
+    }
+
+    /**
+     * Returns an initializer that copies the contents of an existing collection in bulk, for use in copy constructors
+     * and builders, e.g. {@code new java.util.ArrayList<>(other.names)}. This always creates a new collection,
+     * regardless of the {@link Mode}.
+     *
+     * @param type The declared type of the field.
+     * @param sourceExpression An expression evaluating to the (non-null) collection to copy.
+     */
+    public String findCollectionCopyInitializer(DeclaredType type, String sourceExpression)
+            throws InvalidTypeException {
+        return String.format("new %s<>(%s)", findCollectionImplementation(type).getCanonicalName(), sourceExpression);
+    }
+
+    /**
+     * The {@link Map} counterpart of {@link #findCollectionCopyInitializer(DeclaredType, String)}.
+     */
+    public String findMapCopyInitializer(DeclaredType type, String sourceExpression) throws InvalidTypeException {
+        return String.format("new %s<>(%s)", findMapImplementation(type).getCanonicalName(), sourceExpression);
+    }
+
+    private String findCollectionInitializer(DeclaredType type, int expectedSize) throws InvalidTypeException {
+        String emptySentinel = mode == Mode.EMPTY_SENTINEL ? findEmptyCollectionSentinel(type) : null;
+        return emptySentinel != null ? emptySentinel : findNewCollectionInitializer(type, expectedSize);
+    }
+
+    private String findMapInitializer(DeclaredType type, int expectedSize) throws InvalidTypeException {
+        String emptySentinel = mode == Mode.EMPTY_SENTINEL ? findEmptyMapSentinel(type) : null;
+        return emptySentinel != null ? emptySentinel : findNewMapInitializer(type, expectedSize);
+    }
+
+    /**
+     * Returns a statement that replaces the shared empty instance assigned by {@link
+     * #findCollectionInitializer(DeclaredType)} with a real, mutable collection. Generated adders, setters and any
+     * accessor that hands out the collection for modification should emit this statement before writing to the field.
+     * For example, for a field {@code List<String> names} this returns
+     * <pre>{@code
+     * if (this.names == java.util.Collections.EMPTY_LIST) { this.names = new java.util.ArrayList<>(); }
+     * }</pre>
+     *
+     * @param type The declared type of the field.
+     * @param fieldReference The expression used to read and assign the field, e.g. {@code this.names}.
+     *
+     * @return The materializing statement, or an empty string if the field is never initialized with a shared empty
+     * instance in the current {@link Mode}.
+     */
+    public String findCollectionMaterializer(DeclaredType type, String fieldReference) throws InvalidTypeException {
+        return findCollectionMaterializer(type, fieldReference, UNKNOWN_SIZE);
+    }
+
+    /**
+     * Same as {@link #findCollectionMaterializer(DeclaredType, String)}, but presizes the materialized collection
+     * according to {@link #findExpectedSize(Element)}.
+     */
+    public String findCollectionMaterializer(Element field, String fieldReference) throws InvalidTypeException {
+        return findCollectionMaterializer(getDeclaredType(field), fieldReference, findExpectedSize(field));
+    }
+
+    /**
+     * The {@link Map} counterpart of {@link #findCollectionMaterializer(DeclaredType, String)}.
+     */
+    public String findMapMaterializer(DeclaredType type, String fieldReference) throws InvalidTypeException {
+        return findMapMaterializer(type, fieldReference, UNKNOWN_SIZE);
+    }
+
+    /**
+     * The {@link Map} counterpart of {@link #findCollectionMaterializer(Element, String)}.
+     */
+    public String findMapMaterializer(Element field, String fieldReference) throws InvalidTypeException {
+        return findMapMaterializer(getDeclaredType(field), fieldReference, findExpectedSize(field));
+    }
+
+    private String findCollectionMaterializer(DeclaredType type, String fieldReference, int expectedSize)
+            throws InvalidTypeException {
+        String newInitializer = findNewCollectionInitializer(type, expectedSize);
+        String emptySentinel = mode == Mode.EMPTY_SENTINEL ? findEmptyCollectionSentinel(type) : null;
+        if (emptySentinel == null) {
+            return "";
+        }
+        String emptyConstant = metaTypes.isSameTypeErasure(type, Set.class)
+                ? "java.util.Collections.EMPTY_SET"
+                : "java.util.Collections.EMPTY_LIST";
+        return createMaterializer(fieldReference, emptyConstant, newInitializer);
+    }
+
+    private String findMapMaterializer(DeclaredType type, String fieldReference, int expectedSize)
+            throws InvalidTypeException {
+        String newInitializer = findNewMapInitializer(type, expectedSize);
+        String emptySentinel = mode == Mode.EMPTY_SENTINEL ? findEmptyMapSentinel(type) : null;
+        if (emptySentinel == null) {
+            return "";
+        }
+        return createMaterializer(fieldReference, "java.util.Collections.EMPTY_MAP", newInitializer);
+    }
+
+    private static String createMaterializer(String fieldReference, String emptyConstant, String newInitializer) {
+        // Compare against the raw constants rather than the generic factory methods so that the comparison compiles
+        // regardless of the field's type arguments. The factory methods return these very instances.
+        return String.format("if (%1$s == %2$s) { %1$s = %3$s; }", fieldReference, emptyConstant, newInitializer);
+    }
+
+    /**
+     * Returns a call to the {@link java.util.Collections} factory method for the shared empty instance assignable to the
+     * given type, or null if the type requires a specific implementation and so must be instantiated eagerly.
+     */
+    private String findEmptyCollectionSentinel(DeclaredType type) {
+        if (metaTypes.isSameTypeErasure(type, Collection.class) || metaTypes.isSameTypeErasure(type, List.class)) {
+            return "java.util.Collections.emptyList()";
+        } else if (metaTypes.isSameTypeErasure(type, Set.class)) {
+            return "java.util.Collections.emptySet()";
+        }
+        return null;
+    }
+
+    private String findEmptyMapSentinel(DeclaredType type) {
+        return metaTypes.isSameTypeErasure(type, Map.class) ? "java.util.Collections.emptyMap()" : null;
+    }
+
+    /**
+     * Returns the class instantiated by the eager initializer for a collection of the given type.
+     */
+    public Class<?> findCollectionImplementation(DeclaredType type) throws InvalidTypeException {
+        Class<?> implementation;
 
         // Lists
         if (metaTypes.isSameTypeErasure(type, Collection.class) || metaTypes.isSameTypeErasure(type, List.class)
                 || metaTypes.isSameTypeErasure(type, ArrayList.class)) {
-            initializer = "new java.util.ArrayList<>()";
+            implementation = ArrayList.class;
         } else if (metaTypes.isSameTypeErasure(type, LinkedList.class)) {
-            initializer = "new java.util.LinkedList<>()";
+            implementation = LinkedList.class;
         }
 
         // Sets
         else if (metaTypes.isSameTypeErasure(type, Set.class) || metaTypes.isSameTypeErasure(type, HashSet.class)) {
-            initializer = "new java.util.HashSet<>()";
+            implementation = HashSet.class;
         } else if (metaTypes.isSameTypeErasure(type, LinkedHashSet.class)) {
-            initializer = "new java.util.LinkedHashSet<>()";
+            implementation = LinkedHashSet.class;
         } else if (metaTypes.isSameTypeErasure(type, TreeSet.class)) {
-            initializer = "new java.util.TreeSet<>()";
+            implementation = TreeSet.class;
         }
 
         // Unknown
@@ -57,19 +300,59 @@ public final class Initializers {
             throw new InvalidTypeException(
                     String.format("AutoParse does not know how to instantiate Collection of type %s", type.toString()));
         }
-        return initializer;
+        return implementation;
     }
 
-    public String findMapInitializer(DeclaredType type) throws InvalidTypeException {
-        String initializer;
+    /**
+     * Returns the class instantiated by the eager initializer for a map of the given type.
+     */
+    public Class<?> findMapImplementation(DeclaredType type) throws InvalidTypeException {
+        Class<?> implementation;
         if (metaTypes.isSameTypeErasure(type, Map.class) || metaTypes.isSameTypeErasure(type, HashMap.class)) {
-            initializer = "new java.util.HashMap<>()";
+            implementation = HashMap.class;
         } else if (metaTypes.isSameTypeErasure(type, LinkedHashMap.class)) {
-            initializer = "new java.util.LinkedHashMap<>()";
+            implementation = LinkedHashMap.class;
         } else {
             throw new InvalidTypeException(
                     String.format("AutoParse does not know how to instantiate Map of type %s", type.toString()));
         }
-        return initializer;
+        return implementation;
+    }
+
+    private String findNewCollectionInitializer(DeclaredType type, int expectedSize) throws InvalidTypeException {
+        return createNewInitializer(findCollectionImplementation(type), expectedSize);
+    }
+
+    private String findNewMapInitializer(DeclaredType type, int expectedSize) throws InvalidTypeException {
+        return createNewInitializer(findMapImplementation(type), expectedSize);
+    }
+
+    private static String createNewInitializer(Class<?> implementation, int expectedSize) {
+        String capacity = "";
+        if (expectedSize != UNKNOWN_SIZE) {
+            if (implementation == ArrayList.class) {
+                capacity = String.valueOf(expectedSize);
+            } else if (HashSet.class.isAssignableFrom(implementation)
+                    || HashMap.class.isAssignableFrom(implementation)) {
+                capacity = String.valueOf(getHashCapacity(expectedSize));
+            }
+        }
+        return String.format("new %s<>(%s)", implementation.getCanonicalName(), capacity);
+    }
+
+    /**
+     * Returns the initial capacity a hash based collection needs to hold {@code expectedSize} elements without being
+     * rehashed, given the default load factor.
+     */
+    private static int getHashCapacity(int expectedSize) {
+        return (int) Math.ceil(expectedSize / HASH_LOAD_FACTOR);
+    }
+
+    private static DeclaredType getDeclaredType(Element field) throws InvalidTypeException {
+        TypeMirror type = field.asType();
+        if (type.getKind() != TypeKind.DECLARED) {
+            throw new InvalidTypeException(String.format("%s is not of a declared type", field));
+        }
+        return (DeclaredType) type;
     }
 }
@@ -43,10 +43,30 @@ public class MetaTypes {
     private DeclaredType longType;
     private DeclaredType shortType;
     private Set<DeclaredType> boxedTypes;
+    private final CacheManager.Cache<String, TypeMirror> erasedTypes;
 
+    /**
+     * Creates an instance that does not cache type lookups.
+     */
     public MetaTypes(ProcessingEnvironment processingEnv) {
+        this(processingEnv, null);
+    }
+
+    /**
+     * @param cacheManager The manager to cache type lookups in, or null to not cache them. All instances created with
+     * the same manager share a single cache.
+     *
+     * @throws IllegalArgumentException If the manager was not created for {@code processingEnv}.
+     */
+    public MetaTypes(ProcessingEnvironment processingEnv, CacheManager cacheManager) {
+        if (cacheManager != null) {
+            cacheManager.checkEnvironment(processingEnv);
+        }
         typeUtils = processingEnv.getTypeUtils();
         elementUtils = processingEnv.getElementUtils();
+        erasedTypes = cacheManager == null
+                ? null
+                : cacheManager.<String, TypeMirror>getCache("MetaTypes.erasedTypes", CacheManager.Scope.ENVIRONMENT);
         initializeKnownTypes();
     }
 
@@ -75,6 +95,23 @@ public class MetaTypes {
         return (DeclaredType) elementUtils.getTypeElement(clazz.getCanonicalName()).asType();
     }
 
+    /**
+     * Returns the erasure of the type with the given canonical name. Comparisons against a type given by name are by far
+     * the most common queries, so if there is a cache the result is cached rather than looking up the element every
+     * time.
+     */
+    private TypeMirror getErasedType(String canonicalName) {
+        if (erasedTypes == null) {
+            return typeUtils.erasure(elementUtils.getTypeElement(canonicalName).asType());
+        }
+        TypeMirror erasedType = erasedTypes.get(canonicalName);
+        if (erasedType == null) {
+            erasedType = typeUtils.erasure(elementUtils.getTypeElement(canonicalName).asType());
+            erasedTypes.put(canonicalName, erasedType);
+        }
+        return erasedType;
+    }
+
     public boolean isString(TypeMirror type) {
         return typeUtils.isSameType(type, stringType);
     }
@@ -134,8 +171,7 @@ public class MetaTypes {
     }
 
     public boolean isSubtype(TypeMirror type, String canonicalName) {
-        TypeMirror otherType = elementUtils.getTypeElement(canonicalName).asType();
-        return typeUtils.isSubtype(type, typeUtils.erasure(otherType));
+        return typeUtils.isSubtype(type, getErasedType(canonicalName));
     }
 
     public boolean isSubtypeErasure(TypeMirror type, Class<?> clazz) {
@@ -143,13 +179,11 @@ public class MetaTypes {
     }
 
     public boolean isSubtypeErasure(TypeMirror type, String canonicalName) {
-        TypeMirror otherType = elementUtils.getTypeElement(canonicalName).asType();
-        return typeUtils.isSubtype(typeUtils.erasure(type), typeUtils.erasure(otherType));
+        return typeUtils.isSubtype(typeUtils.erasure(type), getErasedType(canonicalName));
     }
 
     public boolean isSameType(TypeMirror type, Class<?> clazz) {
-        TypeMirror otherType = elementUtils.getTypeElement(clazz.getCanonicalName()).asType();
-        return typeUtils.isSameType(type, typeUtils.erasure(otherType));
+        return typeUtils.isSameType(type, getErasedType(clazz.getCanonicalName()));
     }
 
     public boolean isSameTypeErasure(TypeMirror type, Class<?> clazz) {
@@ -157,13 +191,11 @@ public class MetaTypes {
     }
 
     public boolean isAssignable(TypeMirror type, Class<?> clazz) {
-        TypeMirror otherType = elementUtils.getTypeElement(clazz.getCanonicalName()).asType();
-        return typeUtils.isAssignable(type, typeUtils.erasure(otherType));
+        return typeUtils.isAssignable(type, getErasedType(clazz.getCanonicalName()));
     }
 
     public boolean isAssignable(Class<?> clazz, TypeMirror type) {
-        TypeMirror otherType = elementUtils.getTypeElement(clazz.getCanonicalName()).asType();
-        return typeUtils.isAssignable(typeUtils.erasure(otherType), type);
+        return typeUtils.isAssignable(getErasedType(clazz.getCanonicalName()), type);
     }
 
     public boolean isBoolean(TypeMirror type) {
@@ -7,12 +7,15 @@
 
 package com.workday.meta;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.PackageElement;
 import javax.lang.model.util.Elements;
@@ -72,6 +75,96 @@ public class PackageTree {
         return node == null ? null : elementUtils.getPackageElement(node.canonicalName);
     }
 
+    /**
+     * Generates the source of a standalone class that performs the same matching as {@link
+     * #getMatchingPackage(Element)} at runtime, without depending on {@code javax.lang.model}. The generated class has
+     * the static methods {@code String getMatchingPackage(Class<?>)} and {@code String getMatchingPackage(String)}, the
+     * latter taking a binary class name, which return the qualified name of the most specific matching package or null.
+     * <p>
+     * The tree is compiled into one method per inner node, each of which switches on the hash of the next package
+     * segment and confirms the match with {@link String#regionMatches(int, String, int, int)}, so lookups do not
+     * allocate.
+     *
+     * @param matcherClassName The fully qualified name of the class to generate.
+     */
+    public String generateMatcherSource(String matcherClassName) {
+        StringBuilder result = new StringBuilder();
+        int lastDot = matcherClassName.lastIndexOf('.');
+        String simpleName = matcherClassName.substring(lastDot + 1);
+        if (lastDot >= 0) {
+            result.append("package ").append(matcherClassName.substring(0, lastDot)).append(";\n\n");
+        }
+        result.append("public final class ").append(simpleName).append(" {\n\n");
+        result.append("    private ").append(simpleName).append("() {}\n\n");
+        result.append("    public static java.lang.String getMatchingPackage(java.lang.Class<?> clazz) {\n");
+        result.append("        return getMatchingPackage(clazz.getName());\n");
+        result.append("    }\n\n");
+        result.append("    public static java.lang.String getMatchingPackage(java.lang.String binaryName) {\n");
+        result.append("        int packageEnd = binaryName.lastIndexOf('.');\n");
+        result.append("        return packageEnd < 0 ? null : match0(binaryName, 0, packageEnd, null);\n");
+        result.append("    }\n");
+
+        List<Node> innerNodes = new ArrayList<>();
+        innerNodes.add(rootNode);
+        for (int i = 0; i < innerNodes.size(); i++) {
+            appendMatchMethod(result, i, innerNodes.get(i), innerNodes);
+        }
+        result.append("}\n");
+        return result.toString();
+    }
+
+    /**
+     * Appends the method matching the segment following {@code node}. Children with children of their own are appended
+     * to {@code innerNodes}, and their method index is their position in that list.
+     */
+    private static void appendMatchMethod(StringBuilder result, int methodIndex, Node node, List<Node> innerNodes) {
+        // Group the children by the hash of their terminal name, since hashes may collide.
+        Map<Integer, List<Node>> childrenByHash = new TreeMap<>();
+        for (String terminalName : new TreeSet<>(node.children.keySet())) {
+            Integer hash = terminalName.hashCode();
+            List<Node> children = childrenByHash.get(hash);
+            if (children == null) {
+                children = new ArrayList<>();
+                childrenByHash.put(hash, children);
+            }
+            children.add(node.children.get(terminalName));
+        }
+
+        result.append("\n");
+        result.append("    private static java.lang.String match").append(methodIndex)
+              .append("(java.lang.String name, int start, int packageEnd, java.lang.String match) {\n");
+        result.append("        if (start > packageEnd) {\n");
+        result.append("            return match;\n");
+        result.append("        }\n");
+        result.append("        int end = name.indexOf('.', start);\n");
+        result.append("        int hash = 0;\n");
+        result.append("        for (int i = start; i < end; i++) {\n");
+        result.append("            hash = 31 * hash + name.charAt(i);\n");
+        result.append("        }\n");
+        result.append("        switch (hash) {\n");
+        for (Map.Entry<Integer, List<Node>> entry : childrenByHash.entrySet()) {
+            result.append("            case ").append(entry.getKey()).append(":\n");
+            for (Node child : entry.getValue()) {
+                String childMatch = child.isMatchable ? '"' + child.canonicalName + '"' : "match";
+                result.append("                if (end - start == ").append(child.terminalName.length())
+                      .append(" && name.regionMatches(start, \"").append(child.terminalName).append("\", 0, ")
+                      .append(child.terminalName.length()).append(")) {\n");
+                if (child.children.isEmpty()) {
+                    result.append("                    return ").append(childMatch).append(";\n");
+                } else {
+                    result.append("                    return match").append(innerNodes.size())
+                          .append("(name, end + 1, packageEnd, ").append(childMatch).append(");\n");
+                    innerNodes.add(child);
+                }
+                result.append("                }\n");
+            }
+            result.append("                break;\n");
+        }
+        result.append("        }\n");
+        result.append("        return match;\n");
+        result.append("    }\n");
+    }
+
     private void addPackageToTree(PackageElement element) {
         List<String> hierarchy = getPackageHierarchy(element);
         addPackageToNode(hierarchy, rootNode);
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Assigns each concrete type of a hierarchy a dense integer id at compile time and generates the source for dispatching
+ * on those ids at runtime. This lets generated polymorphic code replace a chain of {@code instanceof} checks, which
+ * gets slower with every type added to the hierarchy, with a {@code switch} whose cost does not depend on the size of
+ * the hierarchy.
+ * <p>
+ * The generated lookup is a {@link ClassValue}, so the id of each runtime class is computed once and then cached by the
+ * JVM. A runtime class that is not itself indexed (e.g. an anonymous subclass) gets the id of its closest indexed
+ * superclass, or {@link #NO_ID} if it has none.
+ */
+public class TypeIndex {
+
+    /**
+     * The id the generated lookup returns for classes that are not part of the index.
+     */
+    public static final int NO_ID = -1;
+
+    private final List<TypeElement> types;
+    private final List<String> typeNames;
+    private final Map<String, Integer> ids;
+
+    /**
+     * @param metaTypes Used to determine which candidates belong to the hierarchy.
+     * @param baseType The root of the hierarchy.
+     * @param candidates The types to index. Candidates that are abstract, interfaces or not subtypes of {@code
+     * baseType} are ignored.
+     */
+    public TypeIndex(MetaTypes metaTypes, TypeElement baseType, Collection<? extends TypeElement> candidates) {
+        String baseName = baseType.getQualifiedName().toString();
+        List<TypeElement> concreteTypes = new ArrayList<>();
+        for (TypeElement candidate : candidates) {
+            if (isConcrete(candidate) && metaTypes.isSubtype(candidate.asType(), baseName)) {
+                concreteTypes.add(candidate);
+            }
+        }
+
+        // Sort so that ids are stable across compilations, regardless of the order in which candidates were found.
+        Collections.sort(concreteTypes, new Comparator<TypeElement>() {
+            @Override
+            public int compare(TypeElement lhs, TypeElement rhs) {
+                return MetaTypeNames.constructTypeName(lhs).compareTo(MetaTypeNames.constructTypeName(rhs));
+            }
+        });
+
+        types = Collections.unmodifiableList(concreteTypes);
+        List<String> names = new ArrayList<>(concreteTypes.size());
+        ids = new HashMap<>();
+        for (TypeElement type : concreteTypes) {
+            String name = MetaTypeNames.constructTypeName(type);
+            ids.put(name, names.size());
+            names.add(name);
+        }
+        typeNames = Collections.unmodifiableList(names);
+    }
+
+    private static boolean isConcrete(TypeElement type) {
+        ElementKind kind = type.getKind();
+        return (kind == ElementKind.CLASS || kind == ElementKind.ENUM)
+                && !type.getModifiers().contains(Modifier.ABSTRACT);
+    }
+
+    /**
+     * @return The indexed types, in the order of their ids.
+     */
+    public List<TypeElement> getTypes() {
+        return types;
+    }
+
+    /**
+     * @return The binary names of the indexed types, in the order of their ids.
+     */
+    public List<String> getTypeNames() {
+        return typeNames;
+    }
+
+    public int size() {
+        return types.size();
+    }
+
+    /**
+     * @return The id of the given type, or {@link #NO_ID} if it is not part of this index.
+     */
+    public int getId(TypeElement type) {
+        Integer id = ids.get(MetaTypeNames.constructTypeName(type));
+        return id == null ? NO_ID : id;
+    }
+
+    /**
+     * Generates the declaration of a {@code private static final ClassValue<Integer>} field that maps runtime classes
+     * to the ids of this index. The lookup is split over several methods for large indexes, so it
+     * compiles however many types there are.
+     *
+     * @param fieldName The name of the generated field.
+     */
+    public String generateLookupField(String fieldName) {
+        Map<String, String> results = new LinkedHashMap<>();
+        for (int id = 0; id < typeNames.size(); id++) {
+            results.put(typeNames.get(id), String.valueOf(id));
+        }
+
+        StringBuilder result = new StringBuilder();
+        result.append("private static final java.lang.ClassValue<java.lang.Integer> ").append(fieldName)
+              .append(" = new java.lang.ClassValue<java.lang.Integer>() {\n\n");
+        result.append("    @java.lang.Override\n");
+        result.append("    protected java.lang.Integer computeValue(java.lang.Class<?> type) {\n");
+        result.append("        int id = findId(type.getName());\n");
+        result.append("        if (id != ").append(NO_ID).append(") {\n");
+        result.append("            return id;\n");
+        result.append("        }\n");
+        result.append("        java.lang.Class<?> superclass = type.getSuperclass();\n");
+        result.append("        return superclass == null ? ").append(NO_ID).append(" : get(superclass);\n");
+        result.append("    }\n");
+        ChunkedSwitch.appendStringLookup(result, "    ", "findId", "int", results, "return " + NO_ID + ";");
+        result.append("};\n");
+        return result.toString();
+    }
+
+    /**
+     * Generates a {@code switch} statement that dispatches on the runtime class of an instance, using a lookup field
+     * generated by {@link #generateLookupField(String)}.
+     * <p>
+     * Unlike the lookup field, the whole statement is part of the enclosing method, which the JVM limits to 64 KB of
+     * bytecode. Each case costs a few bytes plus its body, so for indexes with thousands of types the case bodies
+     * should be short, e.g. a single method call.
+     *
+     * @param lookupFieldName The name of the lookup field.
+     * @param instanceExpression An expression evaluating to the (non-null) instance to dispatch on.
+     * @param caseGenerator Generates the body of each case. Since the cases are emitted in a plain {@code switch}, each
+     * body must end by returning, throwing or breaking.
+     * @param defaultBody The body of the {@code default} case, used for classes that are not part of this index.
+     */
+    public String generateDispatch(String lookupFieldName, String instanceExpression, CaseGenerator caseGenerator,
+                                   String defaultBody) {
+        StringBuilder result = new StringBuilder();
+        result.append("switch (").append(lookupFieldName).append(".get(").append(instanceExpression)
+              .append(".getClass())) {\n");
+        for (int id = 0; id < types.size(); id++) {
+            result.append("    case ").append(id).append(": // ").append(typeNames.get(id)).append('\n');
+            result.append("        ").append(caseGenerator.generateCase(types.get(id), typeNames.get(id)))
+                  .append('\n');
+        }
+        result.append("    default:\n");
+        result.append("        ").append(defaultBody).append('\n');
+        result.append("}\n");
+        return result.toString();
+    }
+
+    public interface CaseGenerator {
+
+        /**
+         * @param type The type handled by this case.
+         * @param typeName The binary name of {@code type}.
+         *
+         * @return The statements to execute when the instance is of the given type.
+         */
+        String generateCase(TypeElement type, String typeName);
+    }
+}
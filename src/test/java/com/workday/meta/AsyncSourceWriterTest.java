@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncSourceWriterTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Mock
+    private ProcessingEnvironment processingEnv;
+    @Mock
+    private Filer filer;
+    @Mock
+    private Messager messager;
+    @Mock
+    private Element element;
+
+    private final Map<String, RecordingWriter> writers = new ConcurrentHashMap<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private AsyncSourceWriter sourceWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        when(processingEnv.getFiler()).thenReturn(filer);
+        when(processingEnv.getMessager()).thenReturn(messager);
+        when(filer.createSourceFile(anyString(), Mockito.<Element>anyVararg())).thenAnswer(
+                new Answer<JavaFileObject>() {
+                    @Override
+                    public JavaFileObject answer(InvocationOnMock invocation) throws Throwable {
+                        RecordingWriter writer = new RecordingWriter();
+                        writers.put((String) invocation.getArguments()[0], writer);
+                        JavaFileObject sourceFile = Mockito.mock(JavaFileObject.class);
+                        when(sourceFile.openWriter()).thenReturn(writer);
+                        return sourceFile;
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        Thread.interrupted();
+        if (sourceWriter != null) {
+            sourceWriter.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlocksAtMaxPendingFiles() throws Exception {
+        sourceWriter = new AsyncSourceWriter(processingEnv, 2, 1);
+        sourceWriter.write("First", new BlockingRenderer("first"));
+
+        final CountDownLatch secondWritten = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sourceWriter.write("Second", new BlockingRenderer("second"));
+                secondWritten.countDown();
+            }
+        });
+        thread.start();
+        assertFalse(secondWritten.await(200, TimeUnit.MILLISECONDS));
+        assertFalse(writers.containsKey("Second"));
+
+        release.countDown();
+        assertTrue(secondWritten.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        thread.join();
+        assertEquals("first", writers.get("First").contentAtClose);
+    }
+
+    @Test
+    public void testFinishRoundWaitsForAllFiles() throws Exception {
+        sourceWriter = new AsyncSourceWriter(processingEnv, 2, 10);
+        for (int i = 0; i < 5; i++) {
+            sourceWriter.write("File" + i, new BlockingRenderer("content" + i), element);
+        }
+        releaseLater();
+        sourceWriter.finishRound();
+
+        assertEquals(5, writers.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("content" + i, writers.get("File" + i).contentAtClose);
+        }
+        verify(messager, never()).printMessage(eq(Diagnostic.Kind.ERROR), anyString(), eq(element));
+    }
+
+    @Test
+    public void testReportsFailingRenderer() throws Exception {
+        sourceWriter = new AsyncSourceWriter(processingEnv, 2, 1);
+        sourceWriter.write("Broken", new AsyncSourceWriter.Renderer() {
+            @Override
+            public void render(Writer writer) throws IOException {
+                throw new IOException("render failed");
+            }
+        }, element);
+        sourceWriter.finishRound();
+
+        verify(messager).printMessage(eq(Diagnostic.Kind.ERROR), contains("render failed"), eq(element));
+        assertEquals("", writers.get("Broken").contentAtClose);
+    }
+
+    @Test
+    public void testInterruptDoesNotAbandonRendering() throws Exception {
+        sourceWriter = new AsyncSourceWriter(processingEnv, 2, 10);
+        sourceWriter.write("First", new BlockingRenderer("first"));
+        sourceWriter.write("Second", new BlockingRenderer("second"));
+        releaseLater();
+        Thread.currentThread().interrupt();
+        sourceWriter.finishRound();
+
+        assertTrue(Thread.interrupted());
+        assertEquals("first", writers.get("First").contentAtClose);
+        assertEquals("second", writers.get("Second").contentAtClose);
+        verify(messager, never()).printMessage(eq(Diagnostic.Kind.ERROR), anyString());
+    }
+
+    @Test
+    public void testWriteAfterShutdown() throws Exception {
+        sourceWriter = new AsyncSourceWriter(processingEnv, 2, 1);
+        sourceWriter.shutdown();
+        try {
+            sourceWriter.write("Late", new BlockingRenderer("late"));
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            verify(filer, never()).createSourceFile(anyString(), Mockito.<Element>anyVararg());
+        }
+    }
+
+    @Test
+    public void testIdleThreadsStop() throws Exception {
+        sourceWriter = new AsyncSourceWriter(processingEnv, 2, 10, 50);
+        sourceWriter.write("First", new BlockingRenderer("first"));
+        sourceWriter.write("Second", new BlockingRenderer("second"));
+        releaseLater();
+        sourceWriter.finishRound();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (sourceWriter.getThreadCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, sourceWriter.getThreadCount());
+
+        sourceWriter.write("Third", new BlockingRenderer("third"));
+        sourceWriter.finishRound();
+        assertEquals("third", writers.get("Third").contentAtClose);
+    }
+
+    /**
+     * Releases the blocked renderers shortly after the calling thread has started waiting for them.
+     */
+    private void releaseLater() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                release.countDown();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes its content once the test releases it, in two parts so that a file closed early is incomplete.
+     */
+    private class BlockingRenderer implements AsyncSourceWriter.Renderer {
+
+        private final String content;
+
+        BlockingRenderer(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public void render(Writer writer) throws IOException {
+            try {
+                writer.write(content.substring(0, 1));
+                if (!release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new IOException("Renderer was not released");
+                }
+                writer.write(content.substring(1));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class RecordingWriter extends StringWriter {
+
+        private volatile String contentAtClose;
+
+        @Override
+        public void close() throws IOException {
+            contentAtClose = toString();
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.util.Collections;
+import javax.annotation.processing.ProcessingEnvironment;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CacheManagerTest {
+
+    private static final CacheManager.Weigher<String, String> LENGTH_WEIGHER =
+            new CacheManager.Weigher<String, String>() {
+                @Override
+                public int weigh(String key, String value) {
+                    return value.length();
+                }
+            };
+
+    @Test
+    public void testEvictsLeastRecentlyUsedAcrossCaches() {
+        CacheManager manager = new CacheManager(3);
+        CacheManager.Cache<String, String> first = manager.getCache("first", CacheManager.Scope.ENVIRONMENT);
+        CacheManager.Cache<String, String> second = manager.getCache("second", CacheManager.Scope.ENVIRONMENT);
+
+        first.put("a", "1");
+        second.put("b", "2");
+        first.put("c", "3");
+        first.get("a");
+        second.put("d", "4");
+
+        assertEquals("1", first.get("a"));
+        assertNull(second.get("b"));
+        assertEquals("3", first.get("c"));
+        assertEquals("4", second.get("d"));
+        assertEquals(3, manager.getTotalWeight());
+    }
+
+    @Test
+    public void testWeigher() {
+        CacheManager manager = new CacheManager(10);
+        CacheManager.Cache<String, String> cache = manager.getCache("strings", CacheManager.Scope.ENVIRONMENT,
+                                                                       LENGTH_WEIGHER);
+        cache.put("a", "abcd");
+        cache.put("b", "abcd");
+        cache.put("c", "abcd");
+        cache.put("d", "this value is over budget");
+
+        assertNull(cache.get("a"));
+        assertEquals("abcd", cache.get("b"));
+        assertEquals("abcd", cache.get("c"));
+        assertNull(cache.get("d"));
+        assertEquals(8, manager.getTotalWeight());
+    }
+
+    @Test
+    public void testScopes() {
+        CacheManager manager = new CacheManager(10);
+        CacheManager.Cache<String, String> roundCache = manager.getCache("round", CacheManager.Scope.ROUND);
+        CacheManager.Cache<String, String> environmentCache = manager.getCache("environment",
+                                                                                  CacheManager.Scope.ENVIRONMENT);
+        roundCache.put("a", "1");
+        environmentCache.put("b", "2");
+
+        manager.endRound();
+        assertNull(roundCache.get("a"));
+        assertEquals("2", environmentCache.get("b"));
+        assertEquals(1, manager.getTotalWeight());
+
+        manager.clear();
+        assertNull(environmentCache.get("b"));
+        assertEquals(0, manager.getTotalWeight());
+    }
+
+    @Test
+    public void testZeroBudgetDisablesCaching() {
+        CacheManager manager = new CacheManager(0);
+        CacheManager.Cache<String, String> cache = manager.getCache("cache", CacheManager.Scope.ENVIRONMENT);
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCreateWithBudgetOption() {
+        ProcessingEnvironment processingEnv = Mockito.mock(ProcessingEnvironment.class);
+        when(processingEnv.getOptions()).thenReturn(Collections.singletonMap(CacheManager.BUDGET_OPTION, "42"));
+        assertEquals(42, CacheManager.create(processingEnv).getBudget());
+
+        when(processingEnv.getOptions()).thenReturn(Collections.<String, String>emptyMap());
+        assertEquals(CacheManager.DEFAULT_BUDGET, CacheManager.create(processingEnv).getBudget());
+    }
+
+    @Test
+    public void testBoundToEnvironment() {
+        ProcessingEnvironment firstEnv = Mockito.mock(ProcessingEnvironment.class);
+        ProcessingEnvironment secondEnv = Mockito.mock(ProcessingEnvironment.class);
+        when(firstEnv.getOptions()).thenReturn(Collections.<String, String>emptyMap());
+        CacheManager manager = CacheManager.create(firstEnv);
+        assertSame(firstEnv, manager.getEnvironment());
+        manager.checkEnvironment(firstEnv);
+
+        try {
+            new MetaTypes(secondEnv, manager);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            verify(secondEnv, never()).getTypeUtils();
+            verify(secondEnv, never()).getElementUtils();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboundManagerRejectsEnvironment() {
+        new CacheManager(10).checkEnvironment(Mockito.mock(ProcessingEnvironment.class));
+    }
+
+    @Test
+    public void testCachesAreSharedByName() {
+        CacheManager manager = new CacheManager(10);
+        CacheManager.Cache<String, String> cache = manager.getCache("shared", CacheManager.Scope.ROUND);
+        cache.put("a", "1");
+        CacheManager.Cache<String, String> sameCache = manager.getCache("shared", CacheManager.Scope.ROUND);
+        assertSame(cache, sameCache);
+        assertEquals("1", sameCache.get("a"));
+        assertEquals(1, countOccurrences(manager.getStatistics(), "shared"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCacheScopeMismatch() {
+        CacheManager manager = new CacheManager(10);
+        manager.getCache("shared", CacheManager.Scope.ROUND);
+        manager.getCache("shared", CacheManager.Scope.ENVIRONMENT);
+    }
+
+    @Test
+    public void testRemoveCache() {
+        CacheManager manager = new CacheManager(10);
+        CacheManager.Cache<String, String> removed = manager.getCache("removed", CacheManager.Scope.ENVIRONMENT);
+        CacheManager.Cache<String, String> kept = manager.getCache("kept", CacheManager.Scope.ENVIRONMENT);
+        removed.put("a", "1");
+        kept.put("b", "2");
+
+        manager.removeCache("removed");
+        assertNull(removed.get("a"));
+        removed.put("c", "3");
+        assertNull(removed.get("c"));
+        assertEquals("2", kept.get("b"));
+        assertEquals(1, manager.getTotalWeight());
+        assertEquals(0, countOccurrences(manager.getStatistics(), "removed"));
+        assertNotSame(removed, manager.getCache("removed", CacheManager.Scope.ENVIRONMENT));
+    }
+
+    private static int countOccurrences(String text, String word) {
+        int count = 0;
+        for (int index = text.indexOf(word); index >= 0; index = text.indexOf(word, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
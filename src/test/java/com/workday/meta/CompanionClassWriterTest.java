@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompanionClassWriterTest {
+
+    private static final String CLASS_NAME = "com.workday.meta.generated.Model$Inner$$Names";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private CompanionClassWriter writer;
+    private File directory;
+    private JavaCompiler compiler;
+
+    @Before
+    public void setUp() throws Exception {
+        writer = new CompanionClassWriter(CLASS_NAME).addConstant("NAME", "name")
+                                                     .addConstant("ESCAPED", "\"quoted\"\\\n\u00e9\u4e2d")
+                                                     .addConstant("COUNT", 42)
+                                                     .addFactoryMethod("newItems", ArrayList.class)
+                                                     .addFactoryMethod("newProperties", LinkedHashMap.class)
+                                                     .addFactoryMethod("newObject", Object.class);
+        directory = temporaryFolder.getRoot();
+        compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("Tests must be run on a JDK", compiler);
+    }
+
+    @Test
+    public void testClassFileMatchesSource() throws Exception {
+        File sourceDirectory = new File(directory, "source");
+        File classDirectory = new File(directory, "class");
+        compile(sourceDirectory, "Model$Inner$$Names.java", writer.generateSource(), sourceDirectory);
+        writeClassFile(classDirectory);
+
+        Class<?> fromSource = load(sourceDirectory);
+        Class<?> fromClassFile = load(classDirectory);
+
+        assertEquals(fromSource.getModifiers(), fromClassFile.getModifiers());
+        assertEquals(Object.class, fromClassFile.getSuperclass());
+        assertEquals(Modifier.PRIVATE, fromClassFile.getDeclaredConstructor().getModifiers());
+
+        for (Field expected : fromSource.getDeclaredFields()) {
+            Field actual = fromClassFile.getDeclaredField(expected.getName());
+            assertEquals(expected.getModifiers(), actual.getModifiers());
+            assertEquals(expected.getGenericType(), actual.getGenericType());
+            assertEquals(expected.get(null), actual.get(null));
+        }
+        assertEquals(fromSource.getDeclaredFields().length, fromClassFile.getDeclaredFields().length);
+
+        for (Method expected : fromSource.getDeclaredMethods()) {
+            Method actual = fromClassFile.getDeclaredMethod(expected.getName());
+            assertEquals(expected.getModifiers(), actual.getModifiers());
+            assertEquals(expected.toGenericString(), actual.toGenericString());
+            Object first = actual.invoke(null);
+            assertEquals(expected.getReturnType(), first.getClass());
+            assertNotSame(first, actual.invoke(null));
+        }
+        assertEquals(fromSource.getDeclaredMethods().length, fromClassFile.getDeclaredMethods().length);
+    }
+
+    @Test
+    public void testClassFileCanBeCompiledAgainst() throws Exception {
+        File classDirectory = new File(directory, "class");
+        writeClassFile(classDirectory);
+
+        String client = "package com.workday.meta.generated;\n"
+                + "public class Client {\n"
+                + "    java.util.List<String> items = Model$Inner$$Names.newItems();\n"
+                + "    java.util.Map<String, Integer> properties = Model$Inner$$Names.newProperties();\n"
+                + "    String name = Model$Inner$$Names.NAME;\n"
+                + "    int count = Model$Inner$$Names.COUNT;\n"
+                + "}\n";
+        File clientDirectory = new File(directory, "client");
+        compile(clientDirectory, "Client.java", client, classDirectory, "-Werror", "-Xlint:unchecked");
+        assertTrue(new File(clientDirectory, "com/workday/meta/generated/Client.class").isFile());
+    }
+
+    @Test
+    public void testRejectsUnsupportedImplementations() {
+        Class<?>[] implementations = {
+                List.class,
+                AbstractList.class,
+                Integer.class,
+                EnumMap.class,
+                Inner.class,
+                Bounded.class,
+                Hidden.class,
+        };
+        for (Class<?> implementation : implementations) {
+            try {
+                writer.addFactoryMethod("newInstance", implementation);
+                fail("Expected " + implementation.getName() + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(implementation.getName()));
+            }
+        }
+    }
+
+    private void writeClassFile(File classDirectory) throws Exception {
+        File packageDirectory = new File(classDirectory, "com/workday/meta/generated");
+        assertTrue(packageDirectory.mkdirs());
+        Files.write(new File(packageDirectory, "Model$Inner$$Names.class").toPath(), writer.generateClassFile());
+    }
+
+    private void compile(File outputDirectory, String fileName, String source, File classPath, String... options)
+            throws Exception {
+        assertTrue(outputDirectory.mkdirs() || outputDirectory.isDirectory());
+        File sourceFile = new File(outputDirectory, fileName);
+        Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        String[] arguments = new String[options.length + 7];
+        System.arraycopy(options, 0, arguments, 0, options.length);
+        arguments[options.length] = "-encoding";
+        arguments[options.length + 1] = "UTF-8";
+        arguments[options.length + 2] = "-cp";
+        arguments[options.length + 3] = classPath.getPath();
+        arguments[options.length + 4] = "-d";
+        arguments[options.length + 5] = outputDirectory.getPath();
+        arguments[options.length + 6] = sourceFile.getPath();
+        assertEquals(0, compiler.run(null, null, null, arguments));
+    }
+
+    private static Class<?> load(File classDirectory) throws Exception {
+        ClassLoader classLoader = new URLClassLoader(new URL[] { classDirectory.toURI().toURL() });
+        return classLoader.loadClass(CLASS_NAME);
+    }
+
+    public class Inner {}
+
+    public static class Bounded<T extends Number> {}
+
+    static class Hidden {}
+}
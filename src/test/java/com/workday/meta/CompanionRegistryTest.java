@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+public class CompanionRegistryTest {
+
+    private static final String SUFFIX = "$$Companion";
+    private static final String INDEX_NAME = "test.GeneratedCompanionIndex";
+    // Indexed companions have package private constructors, which only the index in the same package can call.
+    private static final String[][] SOURCES = {
+            { "test.Outer", "package test; public class Outer { public static class Inner {} }" },
+            { "test.Outer$Inner$$Companion", "package test; public class Outer$Inner$$Companion {\n"
+                    + "    Outer$Inner$$Companion() {}\n"
+                    + "}" },
+            { "test.Indexed", "package test; public class Indexed {}" },
+            { "test.Indexed$$Companion", "package test; public class Indexed$$Companion {\n"
+                    + "    Indexed$$Companion() {}\n"
+                    + "}" },
+            { "test.Reflective", "package test; public class Reflective {}" },
+            { "test.Reflective$$Companion", "package test; public class Reflective$$Companion {}" },
+            { "test.Hidden", "package test; public class Hidden {}" },
+            { "test.Hidden$$Companion", "package test; public class Hidden$$Companion {\n"
+                    + "    Hidden$$Companion() {}\n"
+                    + "}" },
+            { "test.Lonely", "package test; public class Lonely {}" },
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ClassLoader classLoader;
+    private CountingIndex index;
+    private CompanionRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        CompanionIndexGenerator generator = new CompanionIndexGenerator(INDEX_NAME, SUFFIX);
+        PackageElement testPackage = Mockito.mock(PackageElement.class);
+        when(testPackage.getKind()).thenReturn(ElementKind.PACKAGE);
+        mockName(testPackage, "test");
+        TypeElement outer = mockType("test.Outer", testPackage);
+        generator.addType(mockType("test.Outer.Inner", outer));
+        generator.addType(mockType("test.Indexed", testPackage));
+
+        classLoader = compile(temporaryFolder.getRoot(), generator.generateSource(), Arrays.asList(SOURCES));
+        index = new CountingIndex((CompanionIndex) classLoader.loadClass(INDEX_NAME).newInstance());
+        registry = new CompanionRegistry(SUFFIX, index);
+    }
+
+    @Test
+    public void testIndexedCompanion() throws Exception {
+        Class<?> type = classLoader.loadClass("test.Indexed");
+        assertTrue(registry.hasCompanion(type));
+        assertEquals("test.Indexed$$Companion", registry.getCompanionClass(type).getName());
+        Object first = registry.newCompanion(type);
+        Object second = registry.newCompanion(type);
+        assertSame(registry.getCompanionClass(type), first.getClass());
+        assertTrue(first != second);
+        assertEquals(1, index.lookups);
+    }
+
+    @Test
+    public void testIndexedNestedCompanion() throws Exception {
+        Class<?> type = classLoader.loadClass("test.Outer$Inner");
+        assertEquals("test.Outer$Inner$$Companion", registry.getCompanionClass(type).getName());
+        assertSame(registry.getCompanionClass(type), registry.newCompanion(type, Object.class).getClass());
+    }
+
+    @Test
+    public void testReflectiveFallback() throws Exception {
+        Class<?> type = classLoader.loadClass("test.Reflective");
+        assertEquals("test.Reflective$$Companion", registry.getCompanionClass(type).getName());
+        assertSame(registry.getCompanionClass(type), registry.newCompanion(type).getClass());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReflectiveFallbackRequiresPublicConstructor() throws Exception {
+        registry.getCompanionClass(classLoader.loadClass("test.Hidden"));
+    }
+
+    @Test
+    public void testMissingCompanion() throws Exception {
+        Class<?> type = classLoader.loadClass("test.Lonely");
+        assertFalse(registry.hasCompanion(type));
+        assertNull(registry.getCompanionClass(type));
+        try {
+            registry.newCompanion(type);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("test.Lonely"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSuffixMismatch() {
+        new CompanionRegistry("$$Other", index);
+    }
+
+    @Test
+    public void testLargeIndex() throws Exception {
+        // A single switch over this many companions would exceed the JVM's limit on the size of a method.
+        int typeCount = 3000;
+        CompanionIndexGenerator generator = new CompanionIndexGenerator(INDEX_NAME, SUFFIX);
+        PackageElement testPackage = Mockito.mock(PackageElement.class);
+        when(testPackage.getKind()).thenReturn(ElementKind.PACKAGE);
+        mockName(testPackage, "test");
+        TypeElement many = mockType("test.Many", testPackage);
+        StringBuilder source = new StringBuilder("package test; public class Many {\n");
+        StringBuilder companions = new StringBuilder();
+        for (int i = 0; i < typeCount; i++) {
+            generator.addType(mockType("test.Many.T" + i, many));
+            source.append("    public static class T").append(i).append(" {}\n");
+            companions.append("class Many$T").append(i).append("$$Companion {}\n");
+        }
+        source.append("}\n").append(companions);
+        List<String[]> sources = Collections.singletonList(new String[] { "test.Many", source.toString() });
+
+        ClassLoader largeClassLoader = compile(temporaryFolder.newFolder(), generator.generateSource(), sources);
+        CompanionRegistry largeRegistry = new CompanionRegistry(
+                SUFFIX, (CompanionIndex) largeClassLoader.loadClass(INDEX_NAME).newInstance());
+        for (int i = 0; i < typeCount; i += 97) {
+            Class<?> type = largeClassLoader.loadClass("test.Many$T" + i);
+            assertEquals("test.Many$T" + i + SUFFIX, largeRegistry.getCompanionClass(type).getName());
+            assertSame(largeRegistry.getCompanionClass(type), largeRegistry.newCompanion(type).getClass());
+        }
+        assertFalse(largeRegistry.hasCompanion(largeClassLoader.loadClass("test.Many")));
+    }
+
+    private static TypeElement mockType(String qualifiedName, Element enclosingElement) {
+        TypeElement type = Mockito.mock(TypeElement.class);
+        when(type.getKind()).thenReturn(ElementKind.CLASS);
+        when(type.getEnclosingElement()).thenReturn(enclosingElement);
+        mockName(type, qualifiedName);
+        return type;
+    }
+
+    private static void mockName(Element element, String qualifiedName) {
+        Name name = Mockito.mock(Name.class);
+        when(name.toString()).thenReturn(qualifiedName);
+        if (element instanceof TypeElement) {
+            when(((TypeElement) element).getQualifiedName()).thenReturn(name);
+        } else {
+            when(((PackageElement) element).getQualifiedName()).thenReturn(name);
+        }
+    }
+
+    /**
+     * Compiles the given sources together with the generated index into the given directory, and returns a class
+     * loader for the compiled classes.
+     */
+    private ClassLoader compile(File directory, String indexSource, List<String[]> sources) throws Exception {
+        List<String> arguments = new ArrayList<>();
+        arguments.add("-classpath");
+        arguments.add(System.getProperty("java.class.path"));
+        arguments.add("-d");
+        arguments.add(directory.getPath());
+        arguments.add(writeSource(directory, INDEX_NAME, indexSource));
+        for (String[] source : sources) {
+            arguments.add(writeSource(directory, source[0], source[1]));
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("Tests must be run on a JDK", compiler);
+        assertEquals(0, compiler.run(null, null, null, arguments.toArray(new String[arguments.size()])));
+        return new URLClassLoader(new URL[] { directory.toURI().toURL() }, getClass().getClassLoader());
+    }
+
+    private static String writeSource(File directory, String className, String source) throws Exception {
+        File sourceFile = new File(directory, className.replace('.', '/') + ".java");
+        Files.createDirectories(sourceFile.getParentFile().toPath());
+        Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        return sourceFile.getPath();
+    }
+
+    /**
+     * Counts the factory lookups of a generated index.
+     */
+    private static class CountingIndex implements CompanionIndex {
+
+        private final CompanionIndex delegate;
+        private int lookups;
+
+        CountingIndex(CompanionIndex delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getSuffix() {
+            return delegate.getSuffix();
+        }
+
+        @Override
+        public Factory getFactory(Class<?> type) {
+            lookups++;
+            return delegate.getFactory(type);
+        }
+    }
+}
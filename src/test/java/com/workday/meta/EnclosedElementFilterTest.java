@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.when;
+
+public class EnclosedElementFilterTest {
+
+    private TypeElement outerType;
+    private TypeElement nestedType;
+    private Element instanceField;
+    private Element privateField;
+    private Element staticField;
+    private Element nestedInstanceField;
+    private Element method;
+
+    @Before
+    public void setUp() throws Exception {
+        // Types:
+        // class Outer {
+        //     int instanceField;
+        //     private int privateField;
+        //     static int staticField;
+        //     void method() {}
+        //     static class Nested {
+        //         int nestedInstanceField;
+        //     }
+        // }
+        outerType = mockElement(TypeElement.class, ElementKind.CLASS);
+        nestedType = mockElement(TypeElement.class, ElementKind.CLASS, Modifier.STATIC);
+        instanceField = mockElement(Element.class, ElementKind.FIELD);
+        privateField = mockElement(Element.class, ElementKind.FIELD, Modifier.PRIVATE);
+        staticField = mockElement(Element.class, ElementKind.FIELD, Modifier.STATIC);
+        nestedInstanceField = mockElement(Element.class, ElementKind.FIELD);
+        method = mockElement(Element.class, ElementKind.METHOD);
+
+        setEnclosedElements(outerType, instanceField, privateField, staticField, method, nestedType);
+        setEnclosedElements(nestedType, nestedInstanceField);
+    }
+
+    @Test
+    public void testKindFilter() {
+        EnclosedElementFilter filter = new EnclosedElementFilter(EnumSet.of(ElementKind.METHOD, ElementKind.CLASS),
+                                                                 Modifiers.NONE, Modifiers.NONE, false);
+        assertEquals(Arrays.asList(method, nestedType), scan(filter, outerType));
+    }
+
+    @Test
+    public void testModifierFilters() {
+        EnclosedElementFilter instanceFilter = new EnclosedElementFilter(EnumSet.of(ElementKind.FIELD), Modifiers.NONE,
+                                                                         EnumSet.of(Modifier.STATIC), false);
+        assertEquals(Arrays.asList(instanceField, privateField), scan(instanceFilter, outerType));
+
+        EnclosedElementFilter privateFilter = new EnclosedElementFilter(EnumSet.of(ElementKind.FIELD),
+                                                                        Modifiers.PRIVATE, Modifiers.NONE, false);
+        assertEquals(Collections.singletonList(privateField), scan(privateFilter, outerType));
+    }
+
+    @Test
+    public void testRecursiveScan() {
+        EnclosedElementFilter filter = new EnclosedElementFilter(EnumSet.of(ElementKind.FIELD), Modifiers.NONE,
+                                                                 EnumSet.of(Modifier.STATIC, Modifier.PRIVATE), true);
+        assertEquals(Arrays.asList(instanceField, nestedInstanceField), scan(filter, outerType));
+    }
+
+    private static List<Element> scan(EnclosedElementFilter filter, Element parent) {
+        final List<Element> result = new ArrayList<>();
+        filter.scan(parent, new EnclosedElementFilter.Callback() {
+            @Override
+            public void visit(Element element) {
+                result.add(element);
+            }
+        });
+        return result;
+    }
+
+    private static <T extends Element> T mockElement(Class<T> clazz, ElementKind kind, Modifier... modifiers) {
+        T element = Mockito.mock(clazz);
+        Set<Modifier> modifierSet = EnumSet.noneOf(Modifier.class);
+        Collections.addAll(modifierSet, modifiers);
+        when(element.getKind()).thenReturn(kind);
+        when(element.getModifiers()).thenReturn(modifierSet);
+        doReturn(Collections.emptyList()).when(element).getEnclosedElements();
+        return element;
+    }
+
+    private static void setEnclosedElements(Element parent, Element... children) {
+        doReturn(Arrays.asList(children)).when(parent).getEnclosedElements();
+    }
+}
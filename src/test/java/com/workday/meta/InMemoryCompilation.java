@@ -0,0 +1,323 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs an annotation processor over a set of sources entirely in memory, measuring the time and allocations of every
+ * round as well as the size of the generated output. Used to benchmark processors end to end without disk I/O skewing
+ * the results.
+ * <p>
+ * Allocations are measured for the compiler thread only, and only on JVMs that support {@link
+ * com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}; elsewhere they are reported as -1.
+ */
+public class InMemoryCompilation {
+
+    private final List<JavaFileObject> sources;
+    private final Processor processor;
+    private final List<String> options;
+
+    public InMemoryCompilation(List<JavaFileObject> sources, Processor processor, String... options) {
+        this.sources = sources;
+        this.processor = processor;
+        this.options = Arrays.asList(options);
+    }
+
+    public static JavaFileObject createSource(String qualifiedName, String source) {
+        return new MemoryFileObject(toPath(qualifiedName, JavaFileObject.Kind.SOURCE), JavaFileObject.Kind.SOURCE,
+                                    source);
+    }
+
+    private static String toPath(String className, JavaFileObject.Kind kind) {
+        return className.replace('.', '/') + kind.extension;
+    }
+
+    public Result run() {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("In-memory compilation requires a JDK.");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(diagnostics, Locale.US,
+                                                                                      StandardCharsets.UTF_8);
+        MemoryFileManager fileManager = new MemoryFileManager(standardFileManager);
+        MeasuringProcessor measuringProcessor = new MeasuringProcessor(processor, fileManager);
+
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+        task.setProcessors(Collections.singletonList(measuringProcessor));
+        long start = System.nanoTime();
+        boolean success = task.call();
+        long totalNanos = System.nanoTime() - start;
+
+        return new Result(success, diagnostics.getDiagnostics(), measuringProcessor.rounds, fileManager.outputs,
+                          totalNanos);
+    }
+
+    public static class Result {
+
+        private final boolean success;
+        private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        private final List<RoundStatistics> rounds;
+        private final Map<String, MemoryFileObject> outputs;
+        private final long totalNanos;
+
+        Result(boolean success, List<Diagnostic<? extends JavaFileObject>> diagnostics, List<RoundStatistics> rounds,
+               Map<String, MemoryFileObject> outputs, long totalNanos) {
+            this.success = success;
+            this.diagnostics = diagnostics;
+            this.rounds = rounds;
+            this.outputs = outputs;
+            this.totalNanos = totalNanos;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+            return diagnostics;
+        }
+
+        public List<RoundStatistics> getRounds() {
+            return rounds;
+        }
+
+        /**
+         * @return The names of all generated files, including the compiled classes.
+         */
+        public Set<String> getOutputNames() {
+            return outputs.keySet();
+        }
+
+        public int countOutputs(JavaFileObject.Kind kind) {
+            int count = 0;
+            for (MemoryFileObject output : outputs.values()) {
+                count += output.getKind() == kind ? 1 : 0;
+            }
+            return count;
+        }
+
+        public long getOutputBytes(JavaFileObject.Kind kind) {
+            long bytes = 0;
+            for (MemoryFileObject output : outputs.values()) {
+                bytes += output.getKind() == kind ? output.content.size() : 0;
+            }
+            return bytes;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public String getReport() {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < rounds.size(); i++) {
+                RoundStatistics round = rounds.get(i);
+                result.append(String.format(Locale.US, "round %d: %d root elements, %.1f ms, %d bytes allocated, "
+                                                    + "%d bytes written%n", i + 1, round.rootElements,
+                                            round.nanos / 1e6, round.allocatedBytes, round.writtenBytes));
+            }
+            result.append(String.format(Locale.US, "total: %.1f ms, %d sources (%d bytes) and %d classes (%d bytes) "
+                                                + "generated%n", totalNanos / 1e6,
+                                        countOutputs(JavaFileObject.Kind.SOURCE),
+                                        getOutputBytes(JavaFileObject.Kind.SOURCE),
+                                        countOutputs(JavaFileObject.Kind.CLASS),
+                                        getOutputBytes(JavaFileObject.Kind.CLASS)));
+            return result.toString();
+        }
+    }
+
+    public static class RoundStatistics {
+
+        public final int rootElements;
+        public final long nanos;
+        public final long allocatedBytes;
+        public final long writtenBytes;
+
+        RoundStatistics(int rootElements, long nanos, long allocatedBytes, long writtenBytes) {
+            this.rootElements = rootElements;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.writtenBytes = writtenBytes;
+        }
+    }
+
+    /**
+     * Wraps the processor under test and records statistics for every call to {@link #process(Set,
+     * RoundEnvironment)}.
+     */
+    private static class MeasuringProcessor implements Processor {
+
+        private final Processor delegate;
+        private final MemoryFileManager fileManager;
+        private final List<RoundStatistics> rounds = new ArrayList<>();
+
+        MeasuringProcessor(Processor delegate, MemoryFileManager fileManager) {
+            this.delegate = delegate;
+            this.fileManager = fileManager;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(ProcessingEnvironment processingEnv) {
+            delegate.init(processingEnv);
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            long bytesBefore = fileManager.getWrittenBytes();
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            boolean claimed = delegate.process(annotations, roundEnv);
+            long nanos = System.nanoTime() - start;
+            long allocatedAfter = getAllocatedBytes();
+            rounds.add(new RoundStatistics(roundEnv.getRootElements().size(), nanos,
+                                           allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore,
+                                           fileManager.getWrittenBytes() - bytesBefore));
+            return claimed;
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation,
+                                                             ExecutableElement member, String userText) {
+            return delegate.getCompletions(element, annotation, member, userText);
+        }
+
+        private static long getAllocatedBytes() {
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(
+                        Thread.currentThread().getId());
+            }
+            return -1;
+        }
+    }
+
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        private final Map<String, MemoryFileObject> outputs = new LinkedHashMap<>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public synchronized JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                                JavaFileObject.Kind kind, FileObject sibling) {
+            MemoryFileObject file = new MemoryFileObject(toPath(className, kind), kind, null);
+            outputs.put(file.toUri().toString(), file);
+            return file;
+        }
+
+        @Override
+        public synchronized FileObject getFileForOutput(Location location, String packageName, String relativeName,
+                                                        FileObject sibling) {
+            String name = packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + '/' + relativeName;
+            MemoryFileObject file = new MemoryFileObject(name, JavaFileObject.Kind.OTHER, null);
+            outputs.put(file.toUri().toString(), file);
+            return file;
+        }
+
+        @Override
+        public boolean isSameFile(FileObject a, FileObject b) {
+            return a.toUri().equals(b.toUri());
+        }
+
+        synchronized long getWrittenBytes() {
+            long bytes = 0;
+            for (MemoryFileObject output : outputs.values()) {
+                bytes += output.content.size();
+            }
+            return bytes;
+        }
+    }
+
+    private static class MemoryFileObject extends SimpleJavaFileObject {
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        MemoryFileObject(String path, Kind kind, String source) {
+            super(URI.create("memory:///" + path), kind);
+            if (source != null) {
+                byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+                content.write(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(content.toByteArray());
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            content.reset();
+            return content;
+        }
+
+        @Override
+        public Writer openWriter() {
+            return new OutputStreamWriter(openOutputStream(), StandardCharsets.UTF_8);
+        }
+    }
+}
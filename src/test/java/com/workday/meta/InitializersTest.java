@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InitializersTest {
+
+    @Mock
+    private MetaTypes metaTypes;
+    @Mock
+    private DeclaredType listType;
+    @Mock
+    private DeclaredType setType;
+    @Mock
+    private DeclaredType mapType;
+    @Mock
+    private DeclaredType arrayListType;
+    @Mock
+    private DeclaredType hashSetType;
+    @Mock
+    private DeclaredType linkedHashMapType;
+
+    private Initializers initializers;
+
+    @Before
+    public void setUp() throws Exception {
+        when(listType.getKind()).thenReturn(TypeKind.DECLARED);
+        when(setType.getKind()).thenReturn(TypeKind.DECLARED);
+        when(mapType.getKind()).thenReturn(TypeKind.DECLARED);
+        when(metaTypes.isSameTypeErasure(listType, List.class)).thenReturn(true);
+        when(metaTypes.isSameTypeErasure(setType, Set.class)).thenReturn(true);
+        when(metaTypes.isSameTypeErasure(mapType, Map.class)).thenReturn(true);
+        when(metaTypes.isSameTypeErasure(arrayListType, ArrayList.class)).thenReturn(true);
+        when(metaTypes.isSameTypeErasure(hashSetType, HashSet.class)).thenReturn(true);
+        when(metaTypes.isSameTypeErasure(linkedHashMapType, LinkedHashMap.class)).thenReturn(true);
+        initializers = new Initializers(metaTypes);
+    }
+
+    @Test
+    public void testDefaultInitializers() throws Exception {
+        assertEquals("new java.util.ArrayList<>()", initializers.findCollectionInitializer(listType));
+        assertEquals("new java.util.HashMap<>()", initializers.findMapInitializer(mapType));
+        assertEquals("new java.util.HashSet<>()", initializers.findCollectionInitializer(
+                mockField(setType, null, 0)));
+    }
+
+    @Test
+    public void testEagerMaterializersAreEmpty() throws Exception {
+        assertEquals("", initializers.findCollectionMaterializer(listType, "this.names"));
+        assertEquals("", initializers.findCollectionMaterializer(setType, "this.ids"));
+        assertEquals("", initializers.findMapMaterializer(mapType, "this.values"));
+    }
+
+    @Test
+    public void testEmptySentinels() throws Exception {
+        initializers = new Initializers(metaTypes, Initializers.Mode.EMPTY_SENTINEL);
+        assertEquals("java.util.Collections.emptyList()", initializers.findCollectionInitializer(listType));
+        assertEquals("if (this.names == java.util.Collections.EMPTY_LIST) { "
+                             + "this.names = new java.util.ArrayList<>(); }",
+                     initializers.findCollectionMaterializer(listType, "this.names"));
+        assertEquals("java.util.Collections.emptySet()", initializers.findCollectionInitializer(setType));
+        assertEquals("if (this.ids == java.util.Collections.EMPTY_SET) { this.ids = new java.util.HashSet<>(); }",
+                     initializers.findCollectionMaterializer(setType, "this.ids"));
+        assertEquals("java.util.Collections.emptyMap()", initializers.findMapInitializer(mapType));
+        assertEquals("if (this.values == java.util.Collections.EMPTY_MAP) { "
+                             + "this.values = new java.util.HashMap<>(); }",
+                     initializers.findMapMaterializer(mapType, "this.values"));
+    }
+
+    @Test
+    public void testEmptySentinelKeepsConcreteTypesEager() throws Exception {
+        initializers = new Initializers(metaTypes, Initializers.Mode.EMPTY_SENTINEL);
+        assertEquals("new java.util.ArrayList<>()", initializers.findCollectionInitializer(arrayListType));
+        assertEquals("", initializers.findCollectionMaterializer(arrayListType, "this.names"));
+        assertEquals("new java.util.HashSet<>()", initializers.findCollectionInitializer(hashSetType));
+        assertEquals("", initializers.findCollectionMaterializer(hashSetType, "this.ids"));
+        assertEquals("new java.util.LinkedHashMap<>()", initializers.findMapInitializer(linkedHashMapType));
+        assertEquals("", initializers.findMapMaterializer(linkedHashMapType, "this.values"));
+    }
+
+    @Test
+    public void testSizeAnnotation() throws Exception {
+        String size = "javax.validation.constraints.Size";
+        assertEquals("new java.util.ArrayList<>(20)", initializers.findCollectionInitializer(
+                mockField(listType, size, 20)));
+        assertEquals("new java.util.HashSet<>(4)", initializers.findCollectionInitializer(
+                mockField(setType, size, 3)));
+        assertEquals("new java.util.HashMap<>(16)", initializers.findMapInitializer(mockField(mapType, size, 12)));
+        assertEquals("new java.util.HashMap<>(18)", initializers.findMapInitializer(mockField(mapType, size, 13)));
+        assertEquals("new java.util.ArrayList<>(" + Initializers.MAX_EXPECTED_SIZE + ")",
+                     initializers.findCollectionInitializer(mockField(listType, size, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void testCustomSizeAnnotationAndDefault() throws Exception {
+        initializers.addSizeAnnotation("com.workday.Capacity", "value").setDefaultExpectedSize(6);
+        assertEquals("new java.util.ArrayList<>(5)", initializers.findCollectionInitializer(
+                mockField(listType, "com.workday.Capacity", "value", 5)));
+        assertEquals("new java.util.ArrayList<>(6)", initializers.findCollectionInitializer(
+                mockField(listType, "com.workday.Capacity", "max", 5)));
+        assertEquals("new java.util.HashSet<>(8)", initializers.findCollectionInitializer(
+                mockField(setType, "com.workday.Unrelated", "value", 5)));
+    }
+
+    @Test
+    public void testSizeAnnotationWithoutMax() throws Exception {
+        assertEquals("new java.util.ArrayList<>()", initializers.findCollectionInitializer(
+                mockField(listType, "javax.validation.constraints.Size", "min", 5)));
+    }
+
+    @Test
+    public void testEmptySentinelMaterializerIsPresized() throws Exception {
+        initializers = new Initializers(metaTypes, Initializers.Mode.EMPTY_SENTINEL);
+        Element field = mockField(listType, "javax.validation.constraints.Size", 10);
+        assertEquals("java.util.Collections.emptyList()", initializers.findCollectionInitializer(field));
+        assertEquals("if (this.names == java.util.Collections.EMPTY_LIST) { "
+                             + "this.names = new java.util.ArrayList<>(10); }",
+                     initializers.findCollectionMaterializer(field, "this.names"));
+    }
+
+    @Test
+    public void testCopyInitializers() throws Exception {
+        assertEquals("new java.util.ArrayList<>(other.names)",
+                     initializers.findCollectionCopyInitializer(listType, "other.names"));
+        assertEquals("new java.util.HashMap<>(other.values)",
+                     initializers.findMapCopyInitializer(mapType, "other.values"));
+    }
+
+    /**
+     * Creates a field of the given type, annotated with the given annotation with a {@code max} member if it is not
+     * null.
+     */
+    private static Element mockField(DeclaredType type, String annotationName, int size) {
+        return mockField(type, annotationName, "max", size);
+    }
+
+    /**
+     * Creates a field of the given type, annotated with the given annotation with the given member if it is not null.
+     */
+    private static Element mockField(DeclaredType type, String annotationName, String memberName, int size) {
+        Element field = Mockito.mock(Element.class);
+        when(field.asType()).thenReturn(type);
+        if (annotationName == null) {
+            doReturn(Collections.emptyList()).when(field).getAnnotationMirrors();
+            return field;
+        }
+
+        Name qualifiedName = Mockito.mock(Name.class);
+        when(qualifiedName.toString()).thenReturn(annotationName);
+        TypeElement annotationElement = Mockito.mock(TypeElement.class);
+        when(annotationElement.getQualifiedName()).thenReturn(qualifiedName);
+        DeclaredType annotationType = Mockito.mock(DeclaredType.class);
+        when(annotationType.asElement()).thenReturn(annotationElement);
+
+        Name simpleName = Mockito.mock(Name.class);
+        when(simpleName.contentEquals(memberName)).thenReturn(true);
+        ExecutableElement member = Mockito.mock(ExecutableElement.class);
+        when(member.getSimpleName()).thenReturn(simpleName);
+        AnnotationValue value = Mockito.mock(AnnotationValue.class);
+        when(value.getValue()).thenReturn(size);
+        Map<ExecutableElement, AnnotationValue> values = new HashMap<>();
+        values.put(member, value);
+
+        AnnotationMirror annotation = Mockito.mock(AnnotationMirror.class);
+        when(annotation.getAnnotationType()).thenReturn(annotationType);
+        doReturn(values).when(annotation).getElementValues();
+        doReturn(Collections.singletonList(annotation)).when(field).getAnnotationMirrors();
+        return field;
+    }
+}
@@ -7,6 +7,12 @@
 
 package com.workday.meta;
 
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Locale;
@@ -15,8 +21,12 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.Name;
 import javax.lang.model.element.PackageElement;
 import javax.lang.model.util.Elements;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -34,6 +44,9 @@ import static org.mockito.Mockito.when;
 @RunWith(MockitoJUnitRunner.class)
 public class PackageTreeTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Mock
     private Name orgName;
     @Mock
@@ -153,6 +166,55 @@ public class PackageTreeTest {
         assertPackageEquals(child1PackageElement, tree.getMatchingPackage(greatGrandChildElement));
     }
 
+    @Test
+    public void testGeneratedMatcher() throws Exception {
+        // "Aa" and "BB" have the same hash code.
+        Set<PackageElement> packageElements = new HashSet<>();
+        Collections.addAll(packageElements, orgPackageElement, mockPackage("org.child1"),
+                           mockPackage("org.child1.grandchild.greatgrandchild"), mockPackage("org.Aa"),
+                           mockPackage("org.BB"));
+        PackageTree tree = new PackageTree(elementUtils, packageElements);
+
+        Method matcher = compileMatcher(tree.generateMatcherSource("com.workday.meta.generated.PackageMatcher"));
+
+        assertEquals("org", matcher.invoke(null, "org.Element"));
+        assertEquals("org.child1", matcher.invoke(null, "org.child1.Element"));
+        assertEquals("org.child1", matcher.invoke(null, "org.child1.Outer$Inner"));
+        assertEquals("org.child1", matcher.invoke(null, "org.child1.grandchild.Element"));
+        assertEquals("org.child1.grandchild.greatgrandchild",
+                     matcher.invoke(null, "org.child1.grandchild.greatgrandchild.Element"));
+        assertEquals("org", matcher.invoke(null, "org.child2.Element"));
+        assertEquals("org.Aa", matcher.invoke(null, "org.Aa.Element"));
+        assertEquals("org.BB", matcher.invoke(null, "org.BB.Element"));
+        assertEquals("org", matcher.invoke(null, "org.Ab.Element"));
+        assertNull(matcher.invoke(null, "com.Element"));
+        assertNull(matcher.invoke(null, "organization.Element"));
+        assertNull(matcher.invoke(null, "Element"));
+    }
+
+    private PackageElement mockPackage(String qualifiedName) {
+        Name name = Mockito.mock(Name.class);
+        PackageElement packageElement = Mockito.mock(PackageElement.class);
+        when(name.toString()).thenReturn(qualifiedName);
+        when(packageElement.getQualifiedName()).thenReturn(name);
+        return packageElement;
+    }
+
+    /**
+     * Compiles the generated matcher and returns its {@code getMatchingPackage(String)} method.
+     */
+    private Method compileMatcher(String source) throws Exception {
+        File directory = temporaryFolder.getRoot();
+        File sourceFile = new File(directory, "PackageMatcher.java");
+        Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("Tests must be run on a JDK", compiler);
+        assertEquals(0, compiler.run(null, null, null, "-d", directory.getPath(), sourceFile.getPath()));
+        ClassLoader classLoader = new URLClassLoader(new URL[] { directory.toURI().toURL() });
+        Class<?> matcherClass = classLoader.loadClass("com.workday.meta.generated.PackageMatcher");
+        return matcherClass.getMethod("getMatchingPackage", String.class);
+    }
+
     private static void assertPackageEquals(PackageElement expected, PackageElement actual) {
         assertNotNull("Expected package should not be null", expected);
         assertNotNull(String.format(Locale.US, "Expect: '%s' but found null", expected.getQualifiedName().toString()),
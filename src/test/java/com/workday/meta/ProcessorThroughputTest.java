@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of a typical metajava-based processor end to end and prints a report. Since this takes a
+ * while, it only runs when the system property {@code metajava.benchmark} is true, e.g. {@code ./gradlew test
+ * -Dmetajava.benchmark=true}. The size of the synthetic code base can be changed with the system properties {@code
+ * metajava.benchmark.models}, {@code metajava.benchmark.fields} and {@code metajava.benchmark.depth}.
+ */
+public class ProcessorThroughputTest {
+
+    private static final int MODELS = Integer.getInteger("metajava.benchmark.models", 300);
+    private static final int FIELDS = Integer.getInteger("metajava.benchmark.fields", 8);
+    private static final int DEPTH = Integer.getInteger("metajava.benchmark.depth", 3);
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("metajava.benchmark"));
+    }
+
+    @Test
+    public void testSourceCompanions() {
+        runBenchmark(CompanionClassWriter.Mode.SOURCE);
+    }
+
+    @Test
+    public void testClassFileCompanions() {
+        runBenchmark(CompanionClassWriter.Mode.CLASS_FILE);
+    }
+
+    private static void runBenchmark(CompanionClassWriter.Mode mode) {
+        List<JavaFileObject> sources = new SyntheticModels(MODELS, FIELDS, DEPTH).generate();
+        InMemoryCompilation.Result result = new InMemoryCompilation(sources, new CompanionProcessor(mode)).run();
+
+        System.out.printf("%d models, %d fields, depth %d, %s companions:%n%s", MODELS, FIELDS, DEPTH, mode,
+                          result.getReport());
+        assertTrue(result.getDiagnostics().toString(), result.isSuccess());
+        // Models and their nested classes, then companions, fields holders and the index with its factory.
+        assertEquals(2 * MODELS + 2 * MODELS + 2, result.countOutputs(JavaFileObject.Kind.CLASS));
+        assertTrue(result.getOutputNames().contains(
+                "memory:///" + SyntheticModels.getQualifiedName(0).replace('.', '/') + "$$Fields.java"));
+    }
+
+    /**
+     * For every model, generates a {@code $$Names} companion holding the names of its fields and a factory for each
+     * collection field, and a {@code $$Fields} companion listing the fields, then an index of all {@code $$Fields}
+     * companions once no new models appear.
+     */
+    private static class CompanionProcessor extends AbstractProcessor {
+
+        private static final String NAMES_SUFFIX = "$$Names";
+        private static final String FIELDS_SUFFIX = "$$Fields";
+        private static final String INDEX_NAME = SyntheticModels.BASE_PACKAGE + ".FieldsIndex";
+        private static final EnclosedElementFilter INSTANCE_FIELDS = new EnclosedElementFilter(
+                EnumSet.of(ElementKind.FIELD), Modifiers.NONE, EnumSet.of(Modifier.STATIC), false);
+
+        private final CompanionClassWriter.Mode mode;
+
+        private final CompanionIndexGenerator indexGenerator = new CompanionIndexGenerator(INDEX_NAME, FIELDS_SUFFIX);
+        private CacheManager cacheManager;
+        private MetaTypes metaTypes;
+        private Initializers initializers;
+        private AsyncSourceWriter sourceWriter;
+        private boolean indexWritten;
+
+        CompanionProcessor(CompanionClassWriter.Mode mode) {
+            this.mode = mode;
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public synchronized void init(ProcessingEnvironment processingEnv) {
+            super.init(processingEnv);
+            cacheManager = CacheManager.create(processingEnv);
+            metaTypes = new MetaTypes(processingEnv, cacheManager);
+            initializers = new Initializers(metaTypes);
+            sourceWriter = new AsyncSourceWriter(processingEnv, 2, 64);
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            boolean foundModels = false;
+            for (Element element : roundEnv.getRootElements()) {
+                TypeElement type = (TypeElement) element;
+                String name = type.getQualifiedName().toString();
+                if (name.contains("$$") || name.equals(INDEX_NAME)) {
+                    continue;
+                }
+                foundModels = true;
+                try {
+                    processModel(type);
+                } catch (IOException | InvalidTypeException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.toString(), type);
+                }
+            }
+            sourceWriter.finishRound();
+
+            if (!foundModels && !indexWritten && !indexGenerator.isEmpty()) {
+                try {
+                    indexGenerator.write(processingEnv.getFiler());
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.toString());
+                }
+                indexWritten = true;
+            }
+
+            cacheManager.endRound();
+            if (roundEnv.processingOver()) {
+                sourceWriter.shutdown();
+                cacheManager.clear();
+            }
+            return false;
+        }
+
+        private void processModel(TypeElement type) throws IOException, InvalidTypeException {
+            final List<Element> fields = new ArrayList<>();
+            INSTANCE_FIELDS.scan(type, new EnclosedElementFilter.Callback() {
+                @Override
+                public void visit(Element element) {
+                    fields.add(element);
+                }
+            });
+
+            CompanionClassWriter namesWriter = new CompanionClassWriter(
+                    MetaTypeNames.constructTypeName(type, NAMES_SUFFIX));
+            final StringBuilder fieldList = new StringBuilder();
+            for (Element field : fields) {
+                String name = field.getSimpleName().toString();
+                namesWriter.addConstant(name.toUpperCase(), name);
+                fieldList.append(name).append(',');
+
+                TypeMirror fieldType = field.asType();
+                if (fieldType.getKind() == TypeKind.DECLARED) {
+                    if (metaTypes.isSubtypeErasure(fieldType, java.util.Collection.class)) {
+                        namesWriter.addFactoryMethod("new_" + name, initializers.findCollectionImplementation(
+                                (DeclaredType) fieldType));
+                    } else if (metaTypes.isSubtypeErasure(fieldType, java.util.Map.class)) {
+                        namesWriter.addFactoryMethod("new_" + name, initializers.findMapImplementation(
+                                (DeclaredType) fieldType));
+                    }
+                }
+            }
+            namesWriter.write(processingEnv.getFiler(), mode, type);
+            indexGenerator.addType(type);
+
+            String fieldsName = MetaTypeNames.constructTypeName(type, FIELDS_SUFFIX);
+            final String packageName = fieldsName.substring(0, fieldsName.lastIndexOf('.'));
+            final String simpleName = fieldsName.substring(fieldsName.lastIndexOf('.') + 1);
+            sourceWriter.write(fieldsName, new AsyncSourceWriter.Renderer() {
+                @Override
+                public void render(Writer writer) throws IOException {
+                    writer.write("package " + packageName + ";\n\n");
+                    writer.write("public final class " + simpleName + " {\n");
+                    writer.write("    public static final String FIELDS = \"" + fieldList + "\";\n");
+                    writer.write("}\n");
+                }
+            }, type);
+        }
+    }
+}
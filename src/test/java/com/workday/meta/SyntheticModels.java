@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the sources of synthetic model classes for benchmarking processors. Models are spread over several
+ * packages and form inheritance chains of a configurable depth, and each declares a configurable number of fields of a
+ * mix of scalar and collection types.
+ */
+public class SyntheticModels {
+
+    public static final String BASE_PACKAGE = "com.workday.synthetic";
+    private static final int MODELS_PER_PACKAGE = 100;
+    private static final String[] FIELD_TYPES = {
+            "int",
+            "java.lang.String",
+            "java.util.List<java.lang.String>",
+            "java.util.Map<java.lang.String, java.lang.Integer>",
+            "java.util.Set<java.lang.Long>",
+            "java.util.LinkedList<java.lang.Double>"
+    };
+
+    private final int modelCount;
+    private final int fieldsPerModel;
+    private final int depth;
+
+    /**
+     * @param modelCount The number of model classes to generate.
+     * @param fieldsPerModel The number of fields each model declares itself.
+     * @param depth The length of the inheritance chains. With a depth of one, no model extends another.
+     */
+    public SyntheticModels(int modelCount, int fieldsPerModel, int depth) {
+        if (modelCount < 1 || fieldsPerModel < 0 || depth < 1) {
+            throw new IllegalArgumentException("Invalid model configuration.");
+        }
+        this.modelCount = modelCount;
+        this.fieldsPerModel = fieldsPerModel;
+        this.depth = depth;
+    }
+
+    public List<JavaFileObject> generate() {
+        List<JavaFileObject> sources = new ArrayList<>(modelCount);
+        for (int i = 0; i < modelCount; i++) {
+            String qualifiedName = getQualifiedName(i);
+            sources.add(InMemoryCompilation.createSource(qualifiedName, generateModel(i)));
+        }
+        return sources;
+    }
+
+    public static String getQualifiedName(int index) {
+        return String.format("%s.p%d.Model%d", BASE_PACKAGE, index / MODELS_PER_PACKAGE, index);
+    }
+
+    private String generateModel(int index) {
+        StringBuilder result = new StringBuilder();
+        String qualifiedName = getQualifiedName(index);
+        int lastDot = qualifiedName.lastIndexOf('.');
+        result.append("package ").append(qualifiedName.substring(0, lastDot)).append(";\n\n");
+        result.append("public class ").append(qualifiedName.substring(lastDot + 1));
+        if (index % depth != 0) {
+            result.append(" extends ").append(getQualifiedName(index - 1));
+        }
+        result.append(" {\n\n");
+        for (int field = 0; field < fieldsPerModel; field++) {
+            result.append("    public ").append(FIELD_TYPES[field % FIELD_TYPES.length]).append(" field")
+                  .append(index).append('_').append(field).append(";\n");
+        }
+        result.append("\n    public static class Nested {\n");
+        result.append("        public java.util.List<java.lang.String> values;\n");
+        result.append("    }\n");
+        result.append("}\n");
+        return result.toString();
+    }
+}
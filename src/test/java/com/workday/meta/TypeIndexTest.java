@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 Workday, Inc.
+ *
+ * This software is available under the MIT license.
+ * Please see the LICENSE.txt file in this project.
+ */
+
+package com.workday.meta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TypeIndexTest {
+
+    private static final String[][] SOURCES = {
+            { "test.Shape", "package test; public interface Shape {}" },
+            { "test.AbstractShape", "package test; public abstract class AbstractShape implements Shape {}" },
+            { "test.Square", "package test; public class Square extends AbstractShape {}" },
+            { "test.Circle", "package test; public class Circle implements Shape {}" },
+            { "test.Outer", "package test; public class Outer { public static class Inner implements Shape {} }" },
+            { "test.Token", "package test; public enum Token implements Shape { PLAIN, FANCY { } }" },
+            { "test.Unrelated", "package test; public class Unrelated {}" },
+            { "test.Instances", "package test; public class Instances {\n"
+                    + "    public static Object anonymousCircle() { return new Circle() {}; }\n"
+                    + "    public static Object fancyToken() { return Token.FANCY; }\n"
+                    + "}" },
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private IndexingProcessor processor;
+    private Method dispatch;
+
+    @Before
+    public void setUp() throws Exception {
+        processor = new IndexingProcessor();
+        dispatch = compile(processor, Arrays.asList(SOURCES));
+    }
+
+    @Test
+    public void testIdAssignment() {
+        assertEquals(Arrays.asList("test.Circle", "test.Outer$Inner", "test.Square", "test.Token"),
+                     processor.typeNames);
+        assertEquals(Arrays.asList(0, 1, 2, 3), processor.ids);
+        assertEquals(TypeIndex.NO_ID, processor.unrelatedId);
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        ClassLoader classLoader = dispatch.getDeclaringClass().getClassLoader();
+        assertEquals("test.Circle", dispatch.invoke(null, newInstance(classLoader, "test.Circle")));
+        assertEquals("test.Square", dispatch.invoke(null, newInstance(classLoader, "test.Square")));
+        assertEquals("test.Outer$Inner", dispatch.invoke(null, newInstance(classLoader, "test.Outer$Inner")));
+        assertNull(dispatch.invoke(null, newInstance(classLoader, "test.Unrelated")));
+        assertNull(dispatch.invoke(null, "not a shape"));
+    }
+
+    @Test
+    public void testDispatchFallsBackToSuperclass() throws Exception {
+        Class<?> instances = dispatch.getDeclaringClass().getClassLoader().loadClass("test.Instances");
+        Object anonymousCircle = instances.getMethod("anonymousCircle").invoke(null);
+        Object fancyToken = instances.getMethod("fancyToken").invoke(null);
+        assertTrue(anonymousCircle.getClass().isAnonymousClass());
+        assertTrue(fancyToken.getClass() != fancyToken.getClass().getDeclaringClass());
+
+        assertEquals("test.Circle", dispatch.invoke(null, anonymousCircle));
+        assertEquals("test.Token", dispatch.invoke(null, fancyToken));
+    }
+
+    @Test
+    public void testLargeIndex() throws Exception {
+        // A single switch over this many types would exceed the JVM's limit on the size of a method.
+        int typeCount = 3000;
+        StringBuilder many = new StringBuilder("package test; public class Many {\n");
+        for (int i = 0; i < typeCount; i++) {
+            many.append("    public static class T").append(i).append(" implements Shape {}\n");
+        }
+        many.append("}");
+        List<String[]> sources = new ArrayList<>(Arrays.asList(SOURCES));
+        sources.add(new String[] { "test.Many", many.toString() });
+
+        IndexingProcessor largeProcessor = new IndexingProcessor();
+        Method largeDispatch = compile(largeProcessor, sources);
+        assertEquals(processor.typeNames.size() + typeCount, largeProcessor.typeNames.size());
+
+        ClassLoader classLoader = largeDispatch.getDeclaringClass().getClassLoader();
+        for (int i = 0; i < typeCount; i += 97) {
+            String typeName = "test.Many$T" + i;
+            assertEquals(typeName, largeDispatch.invoke(null, newInstance(classLoader, typeName)));
+        }
+        assertEquals("test.Circle", largeDispatch.invoke(null, newInstance(classLoader, "test.Circle")));
+        assertNull(largeDispatch.invoke(null, newInstance(classLoader, "test.Unrelated")));
+    }
+
+    private static Object newInstance(ClassLoader classLoader, String className) throws Exception {
+        return classLoader.loadClass(className).newInstance();
+    }
+
+    /**
+     * Compiles the given sources with the given processor, and returns the {@code dispatch} method of the generated
+     * dispatcher.
+     */
+    private Method compile(IndexingProcessor processor, List<String[]> sources) throws Exception {
+        File sourceDirectory = temporaryFolder.newFolder();
+        File outputDirectory = temporaryFolder.newFolder();
+        List<File> sourceFiles = new ArrayList<>();
+        for (String[] source : sources) {
+            File sourceFile = new File(sourceDirectory, source[0].replace('.', '/') + ".java");
+            Files.createDirectories(sourceFile.getParentFile().toPath());
+            Files.write(sourceFile.toPath(), source[1].getBytes(StandardCharsets.UTF_8));
+            sourceFiles.add(sourceFile);
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("Tests must be run on a JDK", compiler);
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null,
+                                                                                   StandardCharsets.UTF_8)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null, fileManager, null, Arrays.asList("-d", outputDirectory.getPath()), null,
+                    fileManager.getJavaFileObjectsFromFiles(sourceFiles));
+            task.setProcessors(Collections.singletonList(processor));
+            assertTrue(task.call());
+        }
+        ClassLoader classLoader = new URLClassLoader(new URL[] { outputDirectory.toURI().toURL() });
+        return classLoader.loadClass("test.Dispatcher").getMethod("dispatch", Object.class);
+    }
+
+    /**
+     * Indexes the implementations of {@code test.Shape} and generates a {@code test.Dispatcher} class whose {@code
+     * dispatch(Object)} method returns the name of the indexed type an instance belongs to, or null.
+     */
+    private static class IndexingProcessor extends AbstractProcessor {
+
+        private List<String> typeNames;
+        private final List<Integer> ids = new ArrayList<>();
+        private int unrelatedId;
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            if (typeNames != null || roundEnv.processingOver()) {
+                return false;
+            }
+            List<TypeElement> candidates = new ArrayList<>();
+            for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+                candidates.add(type);
+                candidates.addAll(ElementFilter.typesIn(type.getEnclosedElements()));
+            }
+            // Reverse the candidates to check that ids do not depend on the order they are found in.
+            Collections.reverse(candidates);
+
+            TypeIndex index = new TypeIndex(new MetaTypes(processingEnv), processingEnv.getElementUtils()
+                    .getTypeElement("test.Shape"), candidates);
+            typeNames = index.getTypeNames();
+            for (TypeElement type : index.getTypes()) {
+                ids.add(index.getId(type));
+            }
+            unrelatedId = index.getId(processingEnv.getElementUtils().getTypeElement("test.Unrelated"));
+
+            try {
+                writeDispatcher(index);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return false;
+        }
+
+        private void writeDispatcher(TypeIndex index) throws IOException {
+            TypeIndex.CaseGenerator caseGenerator = new TypeIndex.CaseGenerator() {
+                @Override
+                public String generateCase(TypeElement type, String typeName) {
+                    return "return \"" + typeName + "\";";
+                }
+            };
+            Element[] originatingElements = index.getTypes().toArray(new Element[index.size()]);
+            try (Writer writer = processingEnv.getFiler().createSourceFile("test.Dispatcher", originatingElements)
+                    .openWriter()) {
+                writer.write("package test;\n\n");
+                writer.write("public final class Dispatcher {\n\n");
+                writer.write(index.generateLookupField("IDS"));
+                writer.write("\n    public static String dispatch(Object shape) {\n");
+                writer.write(index.generateDispatch("IDS", "shape", caseGenerator, "return null;"));
+                writer.write("    }\n");
+                writer.write("}\n");
+            }
+        }
+    }
+}